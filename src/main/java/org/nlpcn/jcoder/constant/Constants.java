@@ -32,7 +32,12 @@ public interface Constants {
 	/**
 	 * 代理请求头，如果有这个头，则不代理
 	 */
-	String PROXY_HEADER = " ";
+	String PROXY_HEADER = "X-Jcoder-Proxy";
+
+	/**
+	 * 请求剩余的毫秒数，每一跳转发时更新
+	 */
+	String DEADLINE_HEADER = "X-Jcoder-Deadline";
 
 	/**
 	 * 内置房间的log
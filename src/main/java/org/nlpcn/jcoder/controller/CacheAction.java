@@ -0,0 +1,54 @@
+package org.nlpcn.jcoder.controller;
+
+import org.nlpcn.jcoder.constant.UserConstants;
+import org.nlpcn.jcoder.domain.User;
+import org.nlpcn.jcoder.filter.AuthoritiesManager;
+import org.nlpcn.jcoder.run.mvc.cache.SharedCache;
+import org.nlpcn.jcoder.util.ApiException;
+import org.nlpcn.jcoder.util.Restful;
+import org.nutz.ioc.loader.annotation.IocBean;
+import org.nutz.mvc.Mvcs;
+import org.nutz.mvc.annotation.*;
+
+import java.util.Base64;
+
+/**
+ * 共享缓存在主机之间获取和推送值, 无法通过外部api调用
+ */
+@IocBean
+@Filters(@By(type = AuthoritiesManager.class))
+@At("/admin/cache")
+@Ok("json")
+public class CacheAction {
+
+	/**
+	 * 获取分到本机的值
+	 *
+	 * @param name group/task/method
+	 * @param key  base64编码的参数
+	 */
+	@At
+	public Restful __get__(@Param("name") String name, @Param("version") String version, @Param("key") String key) {
+		User user = (User) Mvcs.getHttpSession(false).getAttribute(UserConstants.USER);
+		if (user.getId() != -1) {
+			return Restful.fail().code(ApiException.TokenNoPermissions).msg("your account not support this api");
+		}
+		byte[] value = SharedCache.local(name, version, Base64.getDecoder().decode(key));
+		return Restful.ok().obj(value == null ? null : Base64.getEncoder().encodeToString(value));
+	}
+
+	/**
+	 * 接收其他主机计算的值
+	 *
+	 * @param value base64编码的值
+	 */
+	@At
+	public Restful __put__(@Param("name") String name, @Param("version") String version, @Param("key") String key, @Param("value") String value) {
+		User user = (User) Mvcs.getHttpSession(false).getAttribute(UserConstants.USER);
+		if (user.getId() != -1) {
+			return Restful.fail().code(ApiException.TokenNoPermissions).msg("your account not support this api");
+		}
+		boolean ok = SharedCache.offer(name, version, Base64.getDecoder().decode(key), Base64.getDecoder().decode(value));
+		return Restful.instance(ok, ok ? "ok" : "not found " + name + " version " + version);
+	}
+}
@@ -17,6 +17,7 @@ import org.nlpcn.jcoder.service.GroupService;
 import org.nlpcn.jcoder.service.JarService;
 import org.nlpcn.jcoder.service.ProxyService;
 import org.nlpcn.jcoder.service.TaskService;
+import org.nlpcn.jcoder.service.balance.TargetStats;
 import org.nlpcn.jcoder.util.*;
 import org.nlpcn.jcoder.util.dao.BasicDao;
 import org.nutz.dao.Cnd;
@@ -89,6 +90,28 @@ public class GroupAction {
 
     }
 
+    /**
+     * 设置group的负载均衡策略 random,least_request,peak_ewma,p2c 或者实现了Balancer的类名
+     */
+    @At
+    public Restful changeBalance(@Param("groupName") String groupName, @Param("balance") String balance) {
+        ZKMap<String> balanceCache = StaticValue.space().getBalanceCache();
+        if (StringUtil.isBlank(balance)) {
+            balanceCache.remove(groupName);
+            return Restful.instance().ok(true).msg(groupName + " 负载均衡策略恢复为默认");
+        }
+        balanceCache.put(groupName, balance);
+        return Restful.instance().ok(true).msg(groupName + " 负载均衡策略更改为：" + balance);
+    }
+
+    /**
+     * 本机统计的各个目标主机的请求数和延迟
+     */
+    @At
+    public Restful targetStats() {
+        return Restful.instance(TargetStats.all().values());
+    }
+
     @At
     public Restful check(@Param("name") String name) {
         Condition con = Cnd.where("name", "=", name);
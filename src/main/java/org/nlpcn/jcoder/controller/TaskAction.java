@@ -213,6 +213,15 @@ public class TaskAction {
 		if (containsMaster && task.getId() == null && taskService.existsInCluster(task.getGroupName(), task.getName())) {
 			return Restful.fail().code(Forbidden).msg("task[" + task.getGroupName() + "-" + task.getName() + "] already exists in [master]");
 		}
+		// 本机有这个group时先编译一次, 字节码发布到集群后其他节点直接加载, 失败时由各节点检查并返回错误
+		if (task.getStatus() == TaskStatus.ACTIVE.getValue() && groupService.findGroupByName(task.getGroupName()) != null) {
+			try {
+				new JavaRunner(task).check();
+			} catch (Exception e) {
+				LOG.warn("precompile task[{}-{}] err {}", task.getGroupName(), task.getName(), e.getMessage());
+			}
+		}
+
 		// 如果激活任务, 需要检查代码
 		// 如果是新增, 确保任务不存在
 		Restful restful = proxyService.post(hostPorts, Api.TASK_CHECK.getPath(), ImmutableMap.of("task", JSON.toJSONString(task)), TIMEOUT, MERGE_FALSE_MESSAGE_CALLBACK);
@@ -698,6 +707,45 @@ public class TaskAction {
 		return Restful.ok();
 	}
 
+	/**
+	 * master批量停止和启动本机的task, 无法通过外部api调用
+	 *
+	 * @param stops  逗号分隔的 groupName@taskName
+	 * @param starts 逗号分隔的 groupName@taskName
+	 * @return 失败的task和原因
+	 */
+	@At
+	public Restful __reconcile__(@Param("stops") String stops, @Param("starts") String starts) {
+		User user = (User) Mvcs.getHttpSession(false).getAttribute(UserConstants.USER);
+		if (user.getId() != -1) {
+			return Restful.fail().code(ApiException.TokenNoPermissions).msg("your account not support this api");
+		}
+
+		Map<String, String> fails = new HashMap<>();
+
+		for (String name : StringUtil.isBlank(stops) ? new String[0] : stops.split(",")) {
+			String[] split = name.split(Constants.GROUP_TASK_SPLIT);
+			TaskRunManager.stopAll(split[0], split[1]);
+		}
+
+		for (String name : StringUtil.isBlank(starts) ? new String[0] : starts.split(",")) {
+			String[] split = name.split(Constants.GROUP_TASK_SPLIT);
+			Task task = TaskService.findTaskByCache(split[0], split[1]);
+			if (task == null || task.getStatus() == 0) {
+				fails.put(name, "not found or status is 0");
+				continue;
+			}
+			try {
+				TaskRunManager.run(task);
+			} catch (TaskException e) {
+				LOG.error("task run fail " + name, e);
+				fails.put(name, e.getMessage());
+			}
+		}
+
+		return Restful.ok().obj(fails);
+	}
+
 
 	/**
 	 * 同步task到本机，只进行可抽取验证，只要有类名称和package名称就存储，这个存储包括删除
@@ -4,8 +4,12 @@ import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.ImmutableMap;
 import org.nlpcn.jcoder.domain.TaskInfo;
 import org.nlpcn.jcoder.filter.AuthoritiesManager;
+import org.nlpcn.jcoder.run.mvc.cache.CacheEntry;
+import org.nlpcn.jcoder.run.mvc.cache.RefreshScheduler;
+import org.nlpcn.jcoder.run.mvc.limit.Limiter;
 import org.nlpcn.jcoder.scheduler.QuartzSchedulerManager;
 import org.nlpcn.jcoder.scheduler.TaskException;
+import org.nlpcn.jcoder.scheduler.TaskExecutor;
 import org.nlpcn.jcoder.scheduler.TaskRunManager;
 import org.nlpcn.jcoder.service.ProxyService;
 import org.nlpcn.jcoder.util.ApiException;
@@ -23,6 +27,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @IocBean
@@ -136,6 +141,76 @@ public class ThreadAction {
 		}
 	}
 
+	/**
+	 * 查看各个节点api缓存的命中率,加载时间,淘汰数等统计信息
+	 */
+	@At
+	public Restful caches(@Param("hostPorts[]") String[] hostPorts, @Param("groupName") String groupName, @Param(value = "first", df = "true") boolean first) throws Exception {
+		return collect("/admin/thread/caches", hostPorts, groupName, first, gn -> {
+			JSONObject json = new JSONObject();
+			json.put("caches", CacheEntry.allStats(gn));
+			json.put("refreshQueue", RefreshScheduler.queueSize());
+			json.put("refreshActive", RefreshScheduler.activeCount());
+			return json;
+		});
+	}
+
+	/**
+	 * 查看各个节点api和group的并发上限, 执行中和排队中的请求数
+	 */
+	@At
+	public Restful limits(@Param("hostPorts[]") String[] hostPorts, @Param("groupName") String groupName, @Param(value = "first", df = "true") boolean first) throws Exception {
+		return collect("/admin/thread/limits", hostPorts, groupName, first, gn -> {
+			JSONObject json = new JSONObject();
+			json.put("limits", Limiter.allStats(gn));
+			return json;
+		});
+	}
+
+	/**
+	 * 查看各个节点task线程池的执行数, 排队数和拒绝数
+	 */
+	@At
+	public Restful executors(@Param("hostPorts[]") String[] hostPorts, @Param("groupName") String groupName, @Param(value = "first", df = "true") boolean first) throws Exception {
+		return collect("/admin/thread/executors", hostPorts, groupName, first, gn -> {
+			JSONObject json = new JSONObject();
+			json.put("executors", TaskExecutor.allStats(gn));
+			return json;
+		});
+	}
+
+	/**
+	 * first为true时向各个节点请求path并按节点合并结果, 否则返回本机的统计
+	 *
+	 * @param local 传入groupName, 返回本机的统计
+	 */
+	private Restful collect(String path, String[] hostPorts, String groupName, boolean first, Function<String, JSONObject> local) throws Exception {
+		if (groupName == null) {
+			groupName = "";
+		}
+
+		if (!first) {
+			return Restful.ok().obj(local.apply(groupName));
+		}
+
+		if (hostPorts == null || hostPorts.length == 0 || StringUtil.isBlank(hostPorts[0])) {
+			hostPorts = StaticValue.space().getAllHosts().toArray(new String[0]);
+		}
+
+		Map<String, Restful> post = proxyService.post(hostPorts, path, ImmutableMap.of("groupName", groupName, "first", false), 100000);
+
+		JSONObject json = new JSONObject();
+		for (Map.Entry<String, Restful> entry : post.entrySet()) {
+			Restful ref = entry.getValue();
+			if (!ref.isOk()) {
+				LOG.error(entry.getKey() + ":" + entry.getValue().toJsonString());
+				continue;
+			}
+			json.put(entry.getKey(), ref.obj2JsonObject());
+		}
+		return Restful.ok().obj(json);
+	}
+
 	/**
 	 * 停止一个运行的action
 	 * <p>
@@ -1,13 +1,21 @@
 package org.nlpcn.jcoder.domain;
 
+import com.google.common.primitives.Primitives;
 import org.nlpcn.jcoder.run.CodeRuntimeException;
+import org.nlpcn.jcoder.run.java.InstancePool;
 import org.nlpcn.jcoder.service.JarService;
 import org.nutz.ioc.Ioc;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * the code init info
@@ -18,6 +26,10 @@ public class CodeInfo {
 
 	private static final Logger LOG = LoggerFactory.getLogger(CodeInfo.class);
 
+	private static final Object[] EMPTY_ARGS = new Object[0];
+
+	private static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
 	private Class<?> classz;
 
 	private Object JavaObject;
@@ -32,6 +44,14 @@ public class CodeInfo {
 
 	private boolean single = true;
 
+	// 非单例时对象池的大小, 0为不使用对象池
+	private int poolSize;
+
+	private volatile InstancePool pool;
+
+	// 正在执行的调用数, 蓝绿切换时等待旧版本的调用结束
+	private final AtomicInteger running = new AtomicInteger();
+
 	public boolean iocChanged(String groupName) {
 		return this.ioc != JarService.getOrCreate(groupName).getIoc();
 	}
@@ -84,6 +104,54 @@ public class CodeInfo {
 		this.single = single;
 	}
 
+	public int getPoolSize() {
+		return poolSize;
+	}
+
+	public void setPoolSize(int poolSize) {
+		this.poolSize = poolSize;
+	}
+
+	public void enter() {
+		running.incrementAndGet();
+	}
+
+	public void exit() {
+		running.decrementAndGet();
+	}
+
+	public int getRunning() {
+		return running.get();
+	}
+
+	/**
+	 * 旧版本的调用结束后释放实例和对象池
+	 */
+	public void release() {
+		JavaObject = null;
+		pool = null;
+	}
+
+	/**
+	 * 获得当前的对象池, ioc或者classloader变化后丢弃旧池重新创建
+	 */
+	public InstancePool getPool() {
+		if (poolSize <= 0 || classz == null) {
+			return null;
+		}
+		InstancePool p = pool;
+		if (p == null || p.stale(ioc, classLoader)) {
+			synchronized (this) {
+				p = pool;
+				if (p == null || p.stale(ioc, classLoader)) {
+					p = new InstancePool(classz, poolSize, ioc, classLoader);
+					pool = p;
+				}
+			}
+		}
+		return p;
+	}
+
 	public void addMethod(ExecuteMethod method) {
 		if (defaultMethod == null) {
 			defaultMethod = method;
@@ -115,6 +183,22 @@ public class CodeInfo {
 		return executeMethods.get(methodName);
 	}
 
+	/**
+	 * 将方法转换为 (Object,Object[])Object 形式的句柄,jit可以内联.失败返回null
+	 */
+	private static MethodHandle makeInvoker(Method method) {
+		try {
+			MethodHandle mh = MethodHandles.publicLookup().unreflect(method);
+			if (Modifier.isStatic(method.getModifiers())) {
+				mh = MethodHandles.dropArguments(mh, 0, Object.class);
+			}
+			return mh.asSpreader(Object[].class, method.getParameterCount()).asType(INVOKER_TYPE);
+		} catch (Exception e) {
+			LOG.warn("make method handle for {} err so use reflect : {}", method, e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * 执行方法的抽象类
 	 *
@@ -126,12 +210,64 @@ public class CodeInfo {
 		private boolean rpc;
 		private boolean restful;
 
+		/**
+		 * 编译时生成的调用句柄,签名统一为 (Object,Object[])Object , 生成失败时为null走反射
+		 */
+		private MethodHandle invoker;
+
+		private Class<?>[] parameterTypes;
+
 		public ExecuteMethod(Method method, Set<String> methodTypeSet, boolean rpc, boolean restful) {
 			super();
 			this.method = method;
 			this.methodTypeSet = methodTypeSet;
 			this.rpc = rpc;
 			this.restful = restful;
+			this.invoker = makeInvoker(method);
+			this.parameterTypes = method.getParameterTypes();
+		}
+
+		/**
+		 * 执行方法,优先使用methodhandle,异常行为和Method.invoke保持一致
+		 *
+		 * @param obj  实例对象,静态方法可为null
+		 * @param args 参数
+		 */
+		public Object invoke(Object obj, Object[] args) throws IllegalAccessException, InvocationTargetException {
+			if (args == null) {
+				args = EMPTY_ARGS;
+			}
+			if (invoker == null || !accept(obj, args)) { //参数需要转换或者错误的交给反射处理
+				return method.invoke(obj, args);
+			}
+			try {
+				return invoker.invokeExact(obj, args);
+			} catch (Throwable e) {
+				throw new InvocationTargetException(e);
+			}
+		}
+
+		/**
+		 * 判断参数是否可以直接交给句柄执行,不能的话需要反射做拆装箱和类型检查
+		 */
+		private boolean accept(Object obj, Object[] args) {
+			if (args.length != parameterTypes.length) {
+				return false;
+			}
+			if (!Modifier.isStatic(method.getModifiers()) && !method.getDeclaringClass().isInstance(obj)) {
+				return false;
+			}
+			for (int i = 0; i < args.length; i++) {
+				Class<?> type = parameterTypes[i];
+				if (type.isPrimitive()) {
+					if (args[i] == null || args[i].getClass() != Primitives.wrap(type)) {
+						return false;
+					}
+				} else if (args[i] != null && !type.isInstance(args[i])) {
+					return false;
+				}
+			}
+			return true;
 		}
 
 		public Method getMethod() {
@@ -140,6 +276,8 @@ public class CodeInfo {
 
 		public void setMethod(Method method) {
 			this.method = method;
+			this.invoker = makeInvoker(method);
+			this.parameterTypes = method.getParameterTypes();
 		}
 
 		public Set<String> getMethodTypeSet() {
@@ -1,6 +1,7 @@
 package org.nlpcn.jcoder.domain;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * 主机信息序列化后存放于集群中
@@ -10,6 +11,12 @@ public class HostGroup implements Serializable {
 	private boolean ssl;
 	private boolean current;
 	private String hostPort;
+	//以下为主机定时上报的负载
+	private int runningJobs;
+	private double cpu;
+	private double heap;
+	private List<String> tasks;
+	private long loadTime;
 
 	public int getWeight() {
 		return weight;
@@ -42,4 +49,56 @@ public class HostGroup implements Serializable {
 	public void setHostPort(String hostPort) {
 		this.hostPort = hostPort;
 	}
+
+	/**
+	 * 本机排队和执行中的task数, 包含所有group
+	 */
+	public int getRunningJobs() {
+		return runningJobs;
+	}
+
+	public void setRunningJobs(int runningJobs) {
+		this.runningJobs = runningJobs;
+	}
+
+	/**
+	 * 每个cpu的平均负载
+	 */
+	public double getCpu() {
+		return cpu;
+	}
+
+	public void setCpu(double cpu) {
+		this.cpu = cpu;
+	}
+
+	/**
+	 * 堆内存使用率
+	 */
+	public double getHeap() {
+		return heap;
+	}
+
+	public void setHeap(double heap) {
+		this.heap = heap;
+	}
+
+	/**
+	 * 这个group在本机排队和执行中的task名称
+	 */
+	public List<String> getTasks() {
+		return tasks;
+	}
+
+	public void setTasks(List<String> tasks) {
+		this.tasks = tasks;
+	}
+
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	public void setLoadTime(long loadTime) {
+		this.loadTime = loadTime;
+	}
 }
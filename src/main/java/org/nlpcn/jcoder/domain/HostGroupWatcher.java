@@ -31,14 +31,20 @@ public class HostGroupWatcher implements Watcher {
 			String key = event.getPath().substring(SharedSpaceService.HOST_GROUP_PATH.length() + 1);
 			ZKMap<HostGroup> hostGroupCache = StaticValue.space().getHostGroupCache();
 			HostGroup hg = hostGroupCache.get(key);
-			if (StaticValue.getHostPort().equals(hg.getHostPort())) {
-				if (hg != null && hg.getWeight() < 0) {
+			if (hg != null && StaticValue.getHostPort().equals(hg.getHostPort())) {
+				if (hg.getWeight() < 0) {
 					this.delete = true;
 					hostGroupCache.remove(key);
+					return;
 				} else {
 					hostGroup = hg;
 				}
 			}
+			try { //负载会定时更新节点, 重新注册监听才能在节点丢失时补回
+				StaticValue.space().getZk().getData().usingWatcher(this).forPath(event.getPath());
+			} catch (Exception e) {
+				LOG.warn("rewatch " + event.getPath() + " err " + e.getMessage());
+			}
 		} else if (event.getType() == Event.EventType.NodeDeleted) {
 			if (!delete) {
 				try {
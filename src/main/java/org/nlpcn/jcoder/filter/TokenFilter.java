@@ -2,6 +2,7 @@ package org.nlpcn.jcoder.filter;
 
 import org.nlpcn.jcoder.constant.UserConstants;
 import org.nlpcn.jcoder.domain.Token;
+import org.nlpcn.jcoder.run.mvc.ApiRoute;
 import org.nlpcn.jcoder.run.mvc.view.JsonView;
 import org.nlpcn.jcoder.run.rpc.RpcFilter;
 import org.nlpcn.jcoder.run.rpc.Rpcs;
@@ -62,11 +63,16 @@ public class TokenFilter implements ActionFilter, RpcFilter {
 
 			String path = actionContext.getPath();
 
-			String[] split = path.replace("/api/", "").split("/");
+			ApiRoute route = ApiRoute.of(actionContext);
 
-
-			if (split.length < 2) {
-				split = new String[]{split[0], null};
+			String[] split;
+			if (route != null) {
+				split = new String[]{route.getGroupName(), route.getClassName()};
+			} else {
+				split = path.replace("/api/", "").split("/");
+				if (split.length < 2) {
+					split = new String[]{split[0], null};
+				}
 			}
 
 			if (!token2.authorize(split[0], split[1])) {
@@ -0,0 +1,97 @@
+package org.nlpcn.jcoder.job;
+
+import com.alibaba.fastjson.JSONObject;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.nlpcn.jcoder.domain.HostGroup;
+import org.nlpcn.jcoder.scheduler.TaskRunManager;
+import org.nlpcn.jcoder.service.SharedSpaceService;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 定时把本机的负载写入自己的host_group节点, master据此放置任务.
+ * 负载没有明显变化时不写, 避免频繁触发zk的监听
+ */
+public class HostLoadJob implements Runnable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(HostLoadJob.class);
+
+	// cpu和堆使用率变化超过这个值才更新
+	private static final double DELTA = 0.05;
+
+	// 负载不变时最多间隔这么多个周期也更新一次
+	private static final int MAX_SKIP = 12;
+
+	@Override
+	public void run() {
+		OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		while (true) {
+			try {
+				Thread.sleep(StaticValue.HOST_LOAD_INTERVAL);
+
+				double load = os.getSystemLoadAverage(); //有的系统不支持返回负数
+				double cpu = load < 0 ? 0 : load / os.getAvailableProcessors();
+				MemoryUsage memory = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+				double heap = memory.getMax() > 0 ? (double) memory.getUsed() / memory.getMax() : 0;
+				int runningJobs = TaskRunManager.runningCount();
+
+				String prefix = StaticValue.getHostPort() + "_";
+				for (String key : StaticValue.space().getHostGroupCache().keySet()) {
+					if (key.startsWith(prefix)) {
+						publish(key, runningJobs, cpu, heap, TaskRunManager.runningTasks(key.substring(prefix.length())));
+					}
+				}
+			} catch (InterruptedException e) {
+				LOG.info("host load job interrupted");
+				break;
+			} catch (Exception e) {
+				LOG.error("publish host load err", e);
+			}
+		}
+	}
+
+	private void publish(String key, int runningJobs, double cpu, double heap, List<String> tasks) throws Exception {
+		HostGroup cache = StaticValue.space().getHostGroupCache().get(key);
+		if (cache == null || cache.getWeight() < 0) {
+			return;
+		}
+
+		if (cache.getRunningJobs() == runningJobs && Objects.equals(cache.getTasks(), tasks)
+				&& Math.abs(cache.getCpu() - cpu) < DELTA && Math.abs(cache.getHeap() - heap) < DELTA
+				&& System.currentTimeMillis() - cache.getLoadTime() < (long) StaticValue.HOST_LOAD_INTERVAL * MAX_SKIP) {
+			return;
+		}
+
+		//从zk读取最新的值并带版本号写回, 不覆盖其他地方同时修改的权重和同步状态
+		String path = SharedSpaceService.HOST_GROUP_PATH + "/" + key;
+		Stat stat = new Stat();
+		byte[] bytes;
+		try {
+			bytes = StaticValue.space().getZk().getData().storingStatIn(stat).forPath(path);
+		} catch (KeeperException.NoNodeException e) {
+			return;
+		}
+		HostGroup hostGroup = JSONObject.parseObject(bytes, HostGroup.class);
+		if (hostGroup == null || hostGroup.getWeight() < 0) {
+			return;
+		}
+		hostGroup.setRunningJobs(runningJobs);
+		hostGroup.setCpu(cpu);
+		hostGroup.setHeap(heap);
+		hostGroup.setTasks(tasks);
+		hostGroup.setLoadTime(System.currentTimeMillis());
+		try {
+			StaticValue.space().getZk().setData().withVersion(stat.getVersion()).forPath(path, JSONObject.toJSONBytes(hostGroup));
+		} catch (KeeperException.BadVersionException | KeeperException.NoNodeException e) {
+			LOG.debug("{} changed when publish load, retry next time", path);
+		}
+	}
+}
@@ -2,9 +2,15 @@ package org.nlpcn.jcoder.job;
 
 import com.google.common.collect.ImmutableMap;
 import org.nlpcn.jcoder.constant.Api;
+import org.nlpcn.jcoder.domain.HostGroup;
 import org.nlpcn.jcoder.domain.KeyValue;
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.run.annotation.Schedule;
+import org.nlpcn.jcoder.run.java.JavaSourceUtil;
 import org.nlpcn.jcoder.service.GroupService;
 import org.nlpcn.jcoder.service.ProxyService;
+import org.nlpcn.jcoder.service.SharedSpaceService;
+import org.nlpcn.jcoder.service.balance.TaskPlacement;
 import org.nlpcn.jcoder.util.StaticValue;
 import org.nlpcn.jcoder.util.StringUtil;
 import org.nutz.http.Response;
@@ -12,7 +18,12 @@ import org.quartz.SchedulerException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
@@ -27,6 +38,11 @@ public class MasterRunTaskJob implements Runnable {
 
 	private static Thread thread = null;
 
+	private static final TaskPlacement PLACEMENT = new TaskPlacement();
+
+	// task代码中声明的反亲和, key:groupName/taskName value:代码的hash和声明的task名称
+	private static final Map<String, KeyValue<Integer, List<String>>> ANTI_AFFINITY = new ConcurrentHashMap<>();
+
 	private MasterRunTaskJob() {
 	}
 
@@ -51,9 +67,17 @@ public class MasterRunTaskJob implements Runnable {
 			}
 		}
 		TASK_QUEUE.clear();
+		PLACEMENT.clear();
 		thread = null;
 	}
 
+	/**
+	 * 主机离开group时调用, 不再计入它的分配记录
+	 */
+	public static void forget(String hostPort, String groupName) {
+		PLACEMENT.forget(hostPort, groupName);
+	}
+
 	/**
 	 * 发布一个task到任务队列
 	 */
@@ -79,14 +103,21 @@ public class MasterRunTaskJob implements Runnable {
 				try {
 					KeyValue<String, String> groupTask = TASK_QUEUE.poll(Integer.MAX_VALUE, TimeUnit.DAYS);
 					LOG.info("publish " + groupTask);
-					String hostPort = groupService.getRandomCurrentHostPort(groupTask.getKey());
-					if (StringUtil.isBlank(hostPort)) {
+					List<HostGroup> hosts = groupService.getCurrentHostGroup(groupTask.getKey());
+					if (hosts.isEmpty()) {
 						LOG.warn(groupTask + " not found any current hostport");
 						continue;
 					}
+					HostGroup hostGroup = PLACEMENT.choose(hosts, groupTask.getKey(), groupTask.getValue(), name -> antiAffinity(groupTask.getKey(), name));
+					if (hostGroup == null || StringUtil.isBlank(hostGroup.getHostPort())) {
+						LOG.warn(groupTask + " not found any host for anti affinity " + antiAffinity(groupTask.getKey(), groupTask.getValue()));
+						continue;
+					}
+					String hostPort = hostGroup.getHostPort();
 					Response post = proxyService.post(hostPort, Api.TASK_CRON.getPath(), ImmutableMap.of("groupName", groupTask.getKey(), "taskName", groupTask.getValue()), 1000);
 					if (post.getStatus() == 200) {
-						LOG.info(groupTask + " publish ok result : " + post.getContent());
+						PLACEMENT.assign(hostPort, groupTask.getKey(), groupTask.getValue());
+						LOG.info(groupTask + " publish to " + hostPort + " ok result : " + post.getContent());
 					} else {
 						LOG.error("{} publish fail status : {} result : {}", groupTask, post.getStatus(), post.getContent());
 					}
@@ -106,4 +137,32 @@ public class MasterRunTaskJob implements Runnable {
 
 	}
 
+	/**
+	 * 从task代码的@Schedule中读取反亲和的task, 代码没有变化时使用缓存
+	 */
+	private static Collection<String> antiAffinity(String groupName, String taskName) {
+		Task task = null;
+		try {
+			task = StaticValue.space().getDataInGroupCache(SharedSpaceService.GROUP_PATH + "/" + groupName + "/" + taskName, Task.class);
+		} catch (Exception e) {
+			LOG.warn("get task {}/{} err {}", groupName, taskName, e.getMessage());
+		}
+		if (task == null || StringUtil.isBlank(task.getCode())) {
+			return Collections.emptyList();
+		}
+		String code = task.getCode();
+		KeyValue<Integer, List<String>> kv = ANTI_AFFINITY.get(groupName + "/" + taskName);
+		if (kv == null || kv.getKey() != code.hashCode()) {
+			List<String> names = Collections.emptyList();
+			try {
+				names = new JavaSourceUtil(code).getAnnotationValues(Schedule.class.getSimpleName(), "antiAffinity");
+			} catch (Exception e) {
+				LOG.warn("parse task {}/{} err {}", groupName, taskName, e.getMessage());
+			}
+			kv = KeyValue.with(code.hashCode(), names);
+			ANTI_AFFINITY.put(groupName + "/" + taskName, kv);
+		}
+		return kv.getValue();
+	}
+
 }
\ No newline at end of file
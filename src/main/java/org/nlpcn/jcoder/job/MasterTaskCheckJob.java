@@ -1,21 +1,19 @@
 package org.nlpcn.jcoder.job;
 
-import com.alibaba.fastjson.JSONArray;
 import com.alibaba.fastjson.JSONObject;
 import com.google.common.collect.ImmutableMap;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.TreeCacheEvent.Type;
 import org.nlpcn.jcoder.constant.Api;
 import org.nlpcn.jcoder.constant.Constants;
 import org.nlpcn.jcoder.domain.*;
 import org.nlpcn.jcoder.scheduler.QuartzSchedulerManager;
-import org.nlpcn.jcoder.service.GroupService;
+import org.nlpcn.jcoder.scheduler.ShardedScheduler;
 import org.nlpcn.jcoder.service.ProxyService;
 import org.nlpcn.jcoder.service.SharedSpaceService;
-import org.nlpcn.jcoder.util.MapCount;
 import org.nlpcn.jcoder.util.StaticValue;
-import org.nlpcn.jcoder.util.ZKMap;
 import org.nutz.http.Response;
-import org.quartz.SchedulerException;
+import org.quartz.JobKey;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,20 +23,34 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+/**
+ * master 维护task的期望状态和各个主机上报的实际状态, 由zk的监听增量更新,
+ * 只对两者的差异发出停止和启动的命令, 同一台主机的命令合并为一次请求
+ */
 public class MasterTaskCheckJob implements Runnable {
 
 	private static final Logger LOG = LoggerFactory.getLogger(MasterTaskCheckJob.class);
 
 	private static final BlockingQueue<Handler> HANDLER_QUEUE = new LinkedBlockingQueue<>();
 
+	// 命令发出后等待主机上报结果的毫秒数, 这期间不重复发送
+	private static final long INFLIGHT_TTL = StaticValue.HOST_LOAD_INTERVAL * 3L + 10000L;
 
 	private static Thread thread;
 
-	private List<TaskInfo> taskInfos;
+	// 期望状态, 启用的定时任务 key:groupName@taskName
+	private final Map<String, Task> desired = new HashMap<>();
 
-	private ProxyService proxyService;
+	// 实际状态, 主机上报的负载和执行中的task key:hostPort_groupName
+	private final Map<String, HostGroup> observed = new HashMap<>();
+
+	// 已经发出还没有在上报中生效的命令和发出的时间
+	private final Map<String, Long> inflight = new HashMap<>();
+
+	// 状态有变化需要对比的group
+	private final Set<String> dirty = new HashSet<>();
 
-	private GroupService groupService;
+	private ProxyService proxyService;
 
 	private MasterTaskCheckJob() {
 	}
@@ -79,7 +91,7 @@ public class MasterTaskCheckJob implements Runnable {
 
 		proxyService = StaticValue.getSystemIoc().get(ProxyService.class, "proxyService");
 
-		groupService = StaticValue.getSystemIoc().get(GroupService.class, "groupService");
+		boolean loaded = false;
 
 		/**
 		 *  监听任务变化
@@ -87,86 +99,23 @@ public class MasterTaskCheckJob implements Runnable {
 		while (StaticValue.isMaster()) {
 			try {
 				try {
-					Handler handler = HANDLER_QUEUE.poll(60, TimeUnit.SECONDS);
+					if (!loaded) { //成为master时全量加载一次, 之后只处理变化
+						load();
+						loaded = true;
+					}
 
-					if (handler != null) {
-						if (handler.getAction() == Type.NODE_REMOVED) {
-							QuartzSchedulerManager.removeJob(handler.getGroupName(), handler.getTaskName());
-						} else if (handler.getAction() == Type.NODE_ADDED || handler.getAction() == Type.NODE_UPDATED) {
-							Task task = StaticValue.space().getDataInGroupCache(handler.getPath(), Task.class);
-							QuartzSchedulerManager.removeJob(handler.getGroupName(), handler.getTaskName());
-							if (task.getType() == 2 && task.getStatus() == 1) {
-								QuartzSchedulerManager.addJob(task.getGroupName(), task.getName(), task.getScheduleStr());
-							}
-						}
+					Handler handler = HANDLER_QUEUE.poll(60, TimeUnit.SECONDS);
 
+					if (handler == null) { //空闲时用内存中的状态全部对比一次, 补上丢失的事件
+						dirty.addAll(groups());
+						syncScheduler();
 					} else {
-						//从 current 获取全部task，增加到定时任务,启动定时器
-						List<Task> cTasks = new ArrayList<>();
-
-						StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH).keySet().forEach(gp -> {
-							StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH + "/" + gp).entrySet().forEach(e -> {
-								if (!"file".equals(e.getKey())) {
-									Task task = JSONObject.parseObject(e.getValue().getData(), Task.class);
-									if (task.getType() == 2 && task.getStatus() == 1) {
-										cTasks.add(task);
-									}
-								}
-							});
-						});
-
-
-						Set<String> allScheduler = QuartzSchedulerManager.jobList().stream().map(j -> j.getName()).collect(Collectors.toSet()); // 现在所有的定时计划
-
-						//获取集群中所有的定时任务
-						findAllRuningJob();
-
-						/**
-						 * 初始化所有定时任务
-						 */
-						cTasks.forEach(task -> {
-							try {
-								String scheduleStr = task.getScheduleStr();
-								if ("while".equals(scheduleStr)) {
-									checkWhileJob(task);
-								} else if ("all".equals(scheduleStr)) {
-									checkAllJob(task);
-								} else {
-									String key = task.getGroupName() + "@" + task.getName();
-									allScheduler.remove(key);
-									if (!QuartzSchedulerManager.checkExists(key)) {
-										if (QuartzSchedulerManager.addJob(task.getGroupName(), task.getName(), task.getScheduleStr())) {
-											LOG.info("regedit ok ! cornStr : " + task.getScheduleStr());
-										} else {
-											LOG.error("regedit fail ! cornStr : " + task.getScheduleStr());
-										}
-									}
-								}
-							} catch (Exception e) {
-								e.printStackTrace();
-							}
-						});
-
-
-						/**
-						 * 对于规划外的定时任务移除
-						 */
-						if (allScheduler.size() > 0) {
-							allScheduler.stream().forEach(groupTaskName -> {
-								String[] split = groupTaskName.split(Constants.GROUP_TASK_SPLIT);
-								try {
-									QuartzSchedulerManager.removeJob(split[0], split[1]);
-								} catch (SchedulerException e) {
-									e.printStackTrace();
-								}
-							});
-						}
-
-
-						//查找所有机器的定时任务 发现没有在定时计划中的发送停止请求
-						stopOutsideJob();
+						do {
+							apply(handler);
+						} while ((handler = HANDLER_QUEUE.poll()) != null);
 					}
 
+					reconcile();
 
 				} catch (InterruptedException e) {
 					e.printStackTrace();
@@ -184,123 +133,260 @@ public class MasterTaskCheckJob implements Runnable {
 
 	}
 
-	private void stopOutsideJob() {
-		//如果单机模式则废止
-		if (StaticValue.IS_LOCAL) {
-			return;
+	/**
+	 * 从缓存中加载全部task和主机的状态
+	 */
+	private void load() throws Exception {
+		desired.clear();
+		observed.clear();
+		inflight.clear();
+
+		Map<String, ChildData> groups = StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH);
+		if (groups != null) {
+			for (String gp : groups.keySet()) {
+				Map<String, ChildData> tasks = StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH + "/" + gp);
+				if (tasks == null) {
+					continue;
+				}
+				tasks.forEach((name, data) -> {
+					if (!"file".equals(name) && data.getData() != null) {
+						Task task = JSONObject.parseObject(data.getData(), Task.class);
+						if (enabled(task)) {
+							desired.put(task.getGroupName() + Constants.GROUP_TASK_SPLIT + task.getName(), task);
+						}
+					}
+				});
+			}
 		}
 
-		//检查非同步状态的机器如果有定时任务就停止
-		ZKMap<HostGroup> hostGroupCache = StaticValue.space().getHostGroupCache();
+		StaticValue.space().getHostGroupCache().toMap().forEach((key, hostGroup) -> observed.put(key, withHostPort(key, hostGroup)));
 
-		/**
-		 * 停止为同步状态机上的任务
-		 */
-		taskInfos.parallelStream().forEach(t -> {
-			HostGroup hostGroup = hostGroupCache.get(t.getHostPort() + "_" + t.getGroupName());
-			if (hostGroup != null && !hostGroup.isCurrent()) {
-				stopTask(t.getHostPort(), t.getGroupName(), t.getTaskName());
-			}
+		syncScheduler();
 
-		});
-	}
+		dirty.addAll(groups());
 
+		LOG.info("master loaded {} tasks and {} host groups", desired.size(), observed.size());
+	}
 
 	/**
-	 * 检查all的task
+	 * 根据zk的事件更新状态
 	 */
-	private void checkAllJob(Task task) {
+	private void apply(Handler handler) throws Exception {
+		if (handler.getPath().startsWith(SharedSpaceService.HOST_GROUP_PATH)) { //主机上报或者离开
+			String key = handler.getPath().substring(SharedSpaceService.HOST_GROUP_PATH.length() + 1);
+			HostGroup now = handler.getAction() == Type.NODE_REMOVED ? null : StaticValue.space().getHostGroupCache().get(key);
+			HostGroup old = now == null ? observed.remove(key) : observed.put(key, withHostPort(key, now));
+			if (changed(old, now)) {
+				dirty.add(handler.getGroupName());
+			}
+			return;
+		}
 
-		Set<String> currentHostPort = null;
+		String key = handler.getGroupName() + Constants.GROUP_TASK_SPLIT + handler.getTaskName();
+		Task task = null;
+		if (handler.getAction() == Type.NODE_ADDED || handler.getAction() == Type.NODE_UPDATED) {
+			task = StaticValue.space().getDataInGroupCache(handler.getPath(), Task.class);
+		} else if (handler.getAction() != Type.NODE_REMOVED) {
+			return;
+		}
 
-		if (StaticValue.IS_LOCAL) {
-			currentHostPort = new HashSet<>();
-			currentHostPort.add(StaticValue.getHostPort());
+		if (task != null && enabled(task)) {
+			desired.put(key, task);
 		} else {
-			//获得所有有这个group的同步机器
-			currentHostPort = new HashSet<>(groupService.getCurrentHostPort(task.getGroupName()));
+			desired.remove(key);
 		}
+		dirty.add(handler.getGroupName());
 
-		MapCount<String> mc = new MapCount<>();
-		for (TaskInfo taskInfo : taskInfos) {
-			if (taskInfo.getGroupName().equals(task.getGroupName()) && taskInfo.getTaskName().equals(task.getName())) {
-				mc.add(taskInfo.getHostPort());
+		if (!StaticValue.SCHEDULE_SHARDED) { //分片模式cron由各个节点自己调度
+			try {
+				QuartzSchedulerManager.removeJob(handler.getGroupName(), handler.getTaskName());
+				if (task != null && ShardedScheduler.isCron(task)) {
+					QuartzSchedulerManager.addJob(task.getGroupName(), task.getName(), task.getScheduleStr());
+				}
+			} catch (Exception e) {
+				LOG.error("regedit fail ! " + key, e);
 			}
 		}
+	}
 
-		for (Map.Entry<String, Double> entry : mc.get().entrySet()) {
-			if (entry.getValue() == 1) {
-				currentHostPort.remove(entry.getKey());
-			} else {
-				stopTask(entry.getKey(), task.getGroupName(), task.getName());
-			}
+	/**
+	 * 定时计划和期望的cron任务保持一致
+	 */
+	private void syncScheduler() throws Exception {
+		if (StaticValue.SCHEDULE_SHARDED) {
+			return;
 		}
 
-		for (String hostPort : currentHostPort) {
-			startTask(hostPort, task.getGroupName(), task.getName());
+		Set<String> allScheduler = QuartzSchedulerManager.jobList().stream().map(JobKey::getName).collect(Collectors.toSet()); // 现在所有的定时计划
+
+		for (Map.Entry<String, Task> entry : desired.entrySet()) {
+			Task task = entry.getValue();
+			if (!ShardedScheduler.isCron(task)) {
+				continue;
+			}
+			if (!allScheduler.remove(entry.getKey())) {
+				try {
+					if (QuartzSchedulerManager.addJob(task.getGroupName(), task.getName(), task.getScheduleStr())) {
+						LOG.info("regedit ok ! cornStr : " + task.getScheduleStr());
+					} else {
+						LOG.error("regedit fail ! cornStr : " + task.getScheduleStr());
+					}
+				} catch (Exception e) {
+					LOG.error("regedit fail ! cornStr : " + task.getScheduleStr(), e);
+				}
+			}
 		}
 
+		/**
+		 * 对于规划外的定时任务移除
+		 */
+		for (String groupTaskName : allScheduler) {
+			String[] split = groupTaskName.split(Constants.GROUP_TASK_SPLIT);
+			QuartzSchedulerManager.removeJob(split[0], split[1]);
+		}
 	}
 
 	/**
-	 * 检查while的定时任务。必须有且只有一个存在
+	 * 对比有变化的group, 按主机合并命令后发送
 	 */
-	private void checkWhileJob(Task task) {
-		boolean have = false;
-
-		for (TaskInfo t : taskInfos) {
-			if (t.getTaskName().equals(task.getName()) && t.getGroupName().equals(task.getGroupName())) {
-				if (have) {//已经有了stop掉
-					stopTask(t.getHostPort(), t.getGroupName(), t.getTaskName());
-				} else {
-					have = true;
-				}
+	private void reconcile() {
+		if (dirty.isEmpty()) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		inflight.values().removeIf(time -> now - time > INFLIGHT_TTL);
+
+		Map<String, KeyValue<Set<String>, Set<String>>> batches = new TreeMap<>(); //key:hostPort value:stops,starts
+
+		for (String groupName : dirty) {
+			reconcile(groupName, batches, now);
+		}
+		dirty.clear();
+
+		batches.forEach((hostPort, batch) -> send(hostPort, batch.getKey(), batch.getValue()));
+	}
+
+	private void reconcile(String groupName, Map<String, KeyValue<Set<String>, Set<String>>> batches, long now) {
+		// 这个group的主机和上报的执行中的task
+		Map<String, HostGroup> hosts = new TreeMap<>();
+		observed.forEach((key, hostGroup) -> {
+			if (groupName.equals(key.split("_")[1])) {
+				hosts.put(hostGroup.getHostPort(), hostGroup);
 			}
+		});
+
+		Set<String> current = new TreeSet<>();
+		if (StaticValue.IS_LOCAL) {
+			current.add(StaticValue.getHostPort());
+		} else {
+			hosts.forEach((hostPort, hostGroup) -> {
+				if (hostGroup.isCurrent()) {
+					current.add(hostPort);
+				}
+			});
 		}
 
-		if (!have) {
-			MasterRunTaskJob.addQueue(KeyValue.with(task.getGroupName(), task.getName()));
+		for (Map.Entry<String, Task> entry : desired.entrySet()) {
+			Task task = entry.getValue();
+			if (!groupName.equals(task.getGroupName())) {
+				continue;
+			}
+
+			String key = entry.getKey();
+			List<String> running = hosts.values().stream().filter(h -> h.getTasks() != null && h.getTasks().contains(task.getName())).map(HostGroup::getHostPort).collect(Collectors.toList());
+
+			if ("while".equals(task.getScheduleStr())) { //必须有且只有一个存在
+				String keep = running.stream().filter(current::contains).findFirst().orElse(null);
+				for (String hostPort : running) {
+					if (!hostPort.equals(keep) && current.contains(hostPort)) {
+						command(batches, hostPort, key, true, now);
+					}
+				}
+				if (keep != null) {
+					inflight.remove("start@" + key);
+				} else if (inflight.putIfAbsent("start@" + key, now) == null) {
+					MasterRunTaskJob.addQueue(KeyValue.with(task.getGroupName(), task.getName()));
+				}
+			} else if ("all".equals(task.getScheduleStr())) { //每个同步主机上一个
+				for (String hostPort : current) {
+					if (running.contains(hostPort)) {
+						inflight.remove("start@" + hostPort + "@" + key);
+					} else {
+						command(batches, hostPort, key, false, now);
+					}
+				}
+			}
 		}
 
+		//停止非同步状态主机上的任务
+		if (!StaticValue.IS_LOCAL) {
+			hosts.forEach((hostPort, hostGroup) -> {
+				if (!hostGroup.isCurrent() && hostGroup.getTasks() != null) {
+					for (String taskName : hostGroup.getTasks()) {
+						command(batches, hostPort, groupName + Constants.GROUP_TASK_SPLIT + taskName, true, now);
+					}
+				}
+			});
+		}
 	}
 
 	/**
-	 * 停止某个机器的定时任务
+	 * 加入主机的命令, 已经发出并且还在等待上报的不再重复
 	 */
-	private void stopTask(String hostPort, String groupName, String taskName) {
-		LOG.info("to stop task {}/{} in host {}", groupName, taskName, hostPort);
-
-		try {
-			proxyService.post(hostPort, "/admin/thread/stopAllJob", ImmutableMap.of("groupName", groupName, "taskName", taskName), 1000);
-		} catch (Exception e) {
-			e.printStackTrace();
+	private void command(Map<String, KeyValue<Set<String>, Set<String>>> batches, String hostPort, String key, boolean stop, long now) {
+		if (inflight.putIfAbsent((stop ? "stop@" : "start@") + hostPort + "@" + key, now) != null) {
+			return;
 		}
+		KeyValue<Set<String>, Set<String>> batch = batches.computeIfAbsent(hostPort, k -> KeyValue.with(new TreeSet<>(), new TreeSet<>()));
+		(stop ? batch.getKey() : batch.getValue()).add(key);
 	}
 
-	private void startTask(String hostPort, String groupName, String taskName) {
-		LOG.info("to start task {}/{} in host {}", groupName, taskName, hostPort);
+	/**
+	 * 一次请求发送一台主机的全部命令
+	 */
+	private void send(String hostPort, Set<String> stops, Set<String> starts) {
+		LOG.info("to reconcile host {} stop {} start {}", hostPort, stops, starts);
 		try {
-			Response post = proxyService.post(hostPort, Api.TASK_CRON.getPath(), ImmutableMap.of("groupName", groupName, "taskName", taskName), 1000);
+			Response post = proxyService.post(hostPort, Api.TASK_RECONCILE.getPath(), ImmutableMap.of("stops", String.join(",", stops), "starts", String.join(",", starts)), 10000);
 			if (post.getStatus() == 200) {
-				LOG.info("{}/{} publish ok result : " + post.getContent(), groupName, taskName);
+				LOG.info("reconcile {} ok result : {}", hostPort, post.getContent());
 			} else {
-				LOG.error("{}/{} publish fail status : {} result : {}", groupName, taskName, post.getStatus(), post.getContent());
+				LOG.error("reconcile {} fail status : {} result : {}", hostPort, post.getStatus(), post.getContent());
 			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			LOG.error("reconcile " + hostPort + " err " + e.getMessage());
 		}
 	}
 
-	/**
-	 * 获取所有机器运行中的任务
-	 */
-	private void findAllRuningJob() throws Exception {
+	private Set<String> groups() {
+		Set<String> groups = new HashSet<>();
+		desired.values().forEach(t -> groups.add(t.getGroupName()));
+		observed.keySet().forEach(k -> groups.add(k.split("_")[1]));
+		return groups;
+	}
 
-		Response post = proxyService.post(StaticValue.getHostPort(), "/admin/thread/list", ImmutableMap.of("type", "threads"), 10000);
+	private static boolean enabled(Task task) {
+		return task != null && task.getType() != null && task.getType() == 2 && task.getStatus() != null && task.getStatus() == 1;
+	}
 
-		JSONArray jar = JSONObject.parseObject(post.getContent()).getJSONObject("obj").getJSONArray("threads");
+	private static HostGroup withHostPort(String key, HostGroup hostGroup) {
+		hostGroup.setHostPort(key.split("_")[0]);
+		return hostGroup;
+	}
+
+	/**
+	 * 只有同步状态和执行中的task变化才需要对比, cpu和内存的变化不需要
+	 */
+	private static boolean changed(HostGroup old, HostGroup now) {
+		if (old == null || now == null) {
+			return old != now;
+		}
+		return old.isCurrent() != now.isCurrent() || !Objects.equals(tasks(old), tasks(now));
+	}
 
-		taskInfos = jar.toJavaList(TaskInfo.class);
+	private static Set<String> tasks(HostGroup hostGroup) {
+		return hostGroup.getTasks() == null ? Collections.emptySet() : new HashSet<>(hostGroup.getTasks());
 	}
 
 }
@@ -2,6 +2,7 @@ package org.nlpcn.jcoder.job;
 
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.jetty.websocket.jsr356.server.deploy.WebSocketServerContainerInitializer;
+import org.nlpcn.jcoder.run.java.WarmUp;
 import org.nlpcn.jcoder.run.rpc.websocket.ApiWebsocket;
 import org.nlpcn.jcoder.run.rpc.websocket.LogWebsocket;
 import org.nlpcn.jcoder.server.H2Server;
@@ -72,6 +73,10 @@ public class SiteSetup implements Setup {
 			LOG.error(e.getMessage(), e);
 		}
 
+		//预热完成前不接收流量
+		StaticValue.MAPPING.setConfig(nc);
+		GroupService.allLocalGroup().forEach(g -> WarmUp.begin(g.getName()));
+
 		try {
 			StaticValue.setSharedSpace(new SharedSpaceService().init());
 		} catch (Exception e) {
@@ -97,6 +102,9 @@ public class SiteSetup implements Setup {
 		// 开启API访问日志统计
 		new Thread(new StatisticalJob()).start();
 
+		// 上报本机负载, 用于master放置任务
+		new Thread(new HostLoadJob()).start();
+
 		//init webscoket
 		WebAppContext.Context ct = (WebAppContext.Context) nc.getServletContext();
 		WebAppContext webAppContext = (WebAppContext) ct.getContextHandler();
@@ -0,0 +1,27 @@
+package org.nlpcn.jcoder.run.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * route the same request key to the same host by consistent hash, usually used with {@link Cache}
+ * so the cache of every host only holds its own share of keys .
+ * the key is read from the query string , if value is empty the whole query string is the key
+ *
+ * @author ansj
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+@Documented
+public @interface Affinity {
+
+	/**
+	 * param names in query string used as hash key
+	 */
+	String[] value() default {};
+
+	/**
+	 * bounded load factor, a host takes no more than load * average outstanding requests , less than or equal to 1 means no bound
+	 */
+	double load() default 1.25;
+
+}
@@ -19,4 +19,19 @@ public @interface Cache {
 
 	boolean block() default true;
 
+	/**
+	 * 是否在group的所有节点间共享缓存结果, 共享的值通过json序列化, 代码版本变化时失效
+	 */
+	boolean shared() default false;
+
+	/**
+	 * 是否将结果序列化后存储在堆外内存, 开启后按照maxBytes而不是size淘汰
+	 */
+	boolean offHeap() default false;
+
+	/**
+	 * 堆外存储时缓存占用的最大字节数
+	 */
+	long maxBytes() default 64L * 1024 * 1024;
+
 }
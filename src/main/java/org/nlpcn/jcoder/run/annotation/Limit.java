@@ -0,0 +1,37 @@
+package org.nlpcn.jcoder.run.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * limit the concurrent calls of an api on every host , calls over the limit wait in a bounded queue ,
+ * when the queue is full it returns 429 , when waiting timeout it returns 503 .
+ * on a class it works for every execute method without its own limit
+ *
+ * @author ansj
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Documented
+public @interface Limit {
+
+	/**
+	 * max concurrent calls , less than or equal to 0 means no limit
+	 */
+	int value();
+
+	/**
+	 * max waiting calls when over the limit
+	 */
+	int queue() default 0;
+
+	/**
+	 * max waiting time in queue , MILLISECONDS
+	 */
+	long timeout() default 1000;
+
+	/**
+	 * adjust the limit between 1 and value by observed latency (AIMD)
+	 */
+	boolean adaptive() default false;
+
+}
@@ -0,0 +1,15 @@
+package org.nlpcn.jcoder.run.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 对象池模式下实例归还前调用, 用于清理本次调用留下的状态, 方法必须为public且没有参数.
+ * 抛出异常时实例被丢弃
+ *
+ * @author ansj
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+@Documented
+public @interface Reset {
+}
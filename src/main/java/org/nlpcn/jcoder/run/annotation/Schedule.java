@@ -16,4 +16,34 @@ import java.lang.annotation.Target;
 @Documented
 public @interface Schedule {
 	String value() default "" ;
+
+	/**
+	 * what to do when the task is triggered while its last run is not finished
+	 */
+	Overlap overlap() default Overlap.CONCURRENT;
+
+	/**
+	 * runs with bigger priority leave the group queue first
+	 */
+	int priority() default 0;
+
+	/**
+	 * names of tasks in the same group which must not run on the same host with this one
+	 */
+	String[] antiAffinity() default {};
+
+	enum Overlap {
+		/**
+		 * skip this run
+		 */
+		SKIP,
+		/**
+		 * wait until the last run finished
+		 */
+		QUEUE,
+		/**
+		 * run at the same time
+		 */
+		CONCURRENT
+	}
 }
@@ -12,4 +12,9 @@ import java.lang.annotation.*;
 @Documented
 public @interface Single {
 	boolean value() default true;
+
+	/**
+	 * value为false时有效, 大于0时使用对象池, 最多保留pool个已注入的空闲实例, 调用结束后归还而不是每次新建
+	 */
+	int pool() default 0;
 }
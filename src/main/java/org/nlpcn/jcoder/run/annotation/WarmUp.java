@@ -0,0 +1,21 @@
+package org.nlpcn.jcoder.run.annotation;
+
+import java.lang.annotation.*;
+
+/**
+ * 预热方法, 编译完成后节点接收流量前调用, 方法必须为public且没有参数.
+ * 可以在其中加载模型, 建立连接或者用样例参数调用自己的api
+ *
+ * @author ansj
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD})
+@Documented
+public @interface WarmUp {
+
+	/**
+	 * 调用次数
+	 */
+	int times() default 1;
+
+}
@@ -0,0 +1,162 @@
+package org.nlpcn.jcoder.run.java;
+
+import org.nlpcn.jcoder.util.MD5Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 编译结果的磁盘缓存, key由源码, classpath中jar的md5以及jdk版本组成.
+ * 命中时直接加载class字节码, 不再调用javac
+ *
+ * @author ansj
+ */
+public class ClassCache {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ClassCache.class);
+
+	// 超过这个时间没有被使用的缓存文件在启动时删除
+	private static final long EXPIRE = TimeUnit.DAYS.toMillis(30);
+
+	private static final String SUFFIX = ".jcc";
+
+	// jar的md5, key为 path:length:lastModified
+	private static final Map<String, String> JAR_MD5 = new ConcurrentHashMap<>();
+
+	private final File dir;
+
+	public ClassCache(File dir) {
+		this.dir = dir;
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		File[] files = dir.listFiles();
+		if (files != null) {
+			long now = System.currentTimeMillis();
+			for (File file : files) {
+				if (now - file.lastModified() > EXPIRE) {
+					file.delete();
+				}
+			}
+		}
+	}
+
+	/**
+	 * classpath的指纹, jar文件取文件名和md5, 目录取修改时间. 不包含绝对路径, 相同jar的节点之间指纹相同
+	 */
+	public static String fingerprint(Iterable<String> classpath) {
+		List<String> items = new ArrayList<>();
+		for (String path : classpath) {
+			File file = new File(path);
+			if (file.isFile()) {
+				items.add(file.getName() + "=" + JAR_MD5.computeIfAbsent(path + ":" + file.length() + ":" + file.lastModified(), k -> MD5Util.md5(file)));
+			} else {
+				items.add(file.getName() + "=" + file.lastModified());
+			}
+		}
+		Collections.sort(items);
+		return MD5Util.md5(String.join(";", items));
+	}
+
+	/**
+	 * 生成缓存key
+	 *
+	 * @param fingerprint classpath指纹
+	 * @param options     编译参数
+	 */
+	public static String key(String fullClassName, String javaCode, String fingerprint, List<String> options) {
+		return MD5Util.md5(fullClassName + "\n" + javaCode + "\n" + fingerprint + "\n" + options + "\n" + System.getProperty("java.version"));
+	}
+
+	public boolean contains(String key) {
+		return new File(dir, key + SUFFIX).isFile();
+	}
+
+	/**
+	 * 读取缓存, 不存在或者损坏时返回null
+	 *
+	 * @return 编译出的所有class, 主类在最后
+	 */
+	public List<Map.Entry<String, byte[]>> get(String key) {
+		File file = new File(dir, key + SUFFIX);
+		if (!file.isFile()) {
+			return null;
+		}
+		try {
+			List<Map.Entry<String, byte[]>> classes = decode(Files.readAllBytes(file.toPath()));
+			file.setLastModified(System.currentTimeMillis());
+			return classes;
+		} catch (IOException e) {
+			LOG.warn("read class cache {} err so delete it", file, e);
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * 写入缓存, 先写临时文件再改名, 失败只记录日志
+	 */
+	public void put(String key, List<Map.Entry<String, byte[]>> classes) {
+		File file = new File(dir, key + SUFFIX);
+		File tmp = new File(dir, key + "." + Thread.currentThread().getId() + ".tmp");
+		try {
+			Files.write(tmp.toPath(), encode(classes));
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			LOG.warn("write class cache {} err", file, e);
+			tmp.delete();
+		}
+	}
+
+	/**
+	 * 序列化编译结果 [count int]([name utf][len int][bytes])*
+	 */
+	public static byte[] encode(List<Map.Entry<String, byte[]>> classes) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bos)) {
+			out.writeInt(classes.size());
+			for (Map.Entry<String, byte[]> entry : classes) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue().length);
+				out.write(entry.getValue());
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	public static List<Map.Entry<String, byte[]>> decode(byte[] data) throws IOException {
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(data))) {
+			int count = in.readInt();
+			if (count <= 0 || count > data.length) {
+				throw new IOException("illegal class count " + count);
+			}
+			List<Map.Entry<String, byte[]>> classes = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String name = in.readUTF();
+				int len = in.readInt();
+				if (len < 0 || len > data.length) {
+					throw new IOException("illegal class length " + len);
+				}
+				byte[] bytes = new byte[len];
+				in.readFully(bytes);
+				classes.add(new AbstractMap.SimpleImmutableEntry<>(name, bytes));
+			}
+			return classes;
+		}
+	}
+}
@@ -2,8 +2,8 @@ package org.nlpcn.jcoder.run.java;
 
 import javax.tools.FileObject;
 import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaFileManager;
 import javax.tools.JavaFileObject;
-import javax.tools.StandardJavaFileManager;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -14,7 +14,7 @@ public class ClassFileManager extends
 
 	private List<JavaClassObject> javaClassObjectList;
 
-	public ClassFileManager(StandardJavaFileManager
+	public ClassFileManager(JavaFileManager
 			                        standardManager) {
 		super(standardManager);
 		this.javaClassObjectList = new ArrayList<JavaClassObject>();
@@ -0,0 +1,91 @@
+package org.nlpcn.jcoder.run.java;
+
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 可复用的编译环境, classpath中的jar只打开一次, 并按包名缓存jar中的class列表.
+ * 同一时间只能被一个编译使用, 由DynamicEngine池化, classloader变化时丢弃
+ *
+ * @author ansj
+ */
+class CompilerContext implements AutoCloseable {
+
+	private final JavaCompiler compiler;
+
+	private final StandardJavaFileManager standardFileManager;
+
+	private final JavaFileManager fileManager;
+
+	// 创建时的classpath版本
+	private final int generation;
+
+	CompilerContext(List<File> classpath, int generation) throws IOException {
+		this.generation = generation;
+		this.compiler = ToolProvider.getSystemJavaCompiler();
+		this.standardFileManager = compiler.getStandardFileManager(null, null, null);
+		this.standardFileManager.setLocation(StandardLocation.CLASS_PATH, classpath);
+		this.fileManager = new IndexedFileManager(standardFileManager);
+	}
+
+	JavaCompiler getCompiler() {
+		return compiler;
+	}
+
+	/**
+	 * 带classpath索引的文件管理器, 每次编译用ClassFileManager包装它来收集输出
+	 */
+	JavaFileManager getFileManager() {
+		return fileManager;
+	}
+
+	int getGeneration() {
+		return generation;
+	}
+
+	@Override
+	public void close() throws IOException {
+		standardFileManager.close();
+	}
+
+	/**
+	 * 缓存classpath下每个包的class列表, 避免每次编译重新遍历jar
+	 */
+	private static class IndexedFileManager extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+		private final Map<String, List<JavaFileObject>> index = new HashMap<>();
+
+		IndexedFileManager(StandardJavaFileManager fileManager) {
+			super(fileManager);
+		}
+
+		@Override
+		public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse) throws IOException {
+			if (location != StandardLocation.CLASS_PATH && location != StandardLocation.PLATFORM_CLASS_PATH) {
+				return super.list(location, packageName, kinds, recurse);
+			}
+			String key = location.getName() + ":" + packageName + ":" + kinds + ":" + recurse;
+			List<JavaFileObject> result = index.get(key);
+			if (result == null) {
+				result = new ArrayList<>();
+				for (JavaFileObject file : super.list(location, packageName, kinds, recurse)) {
+					result.add(file);
+				}
+				index.put(key, result);
+			}
+			return result;
+		}
+	}
+}
@@ -14,7 +14,10 @@ public class DynamicClassLoader extends URLClassLoader {
 	}
 
 	public Class<?> loadClass(String fullName, JavaClassObject jco) {
-		byte[] classData = jco.getBytes();
+		return loadClass(fullName, jco.getBytes());
+	}
+
+	public Class<?> loadClass(String fullName, byte[] classData) {
 		return this.defineClass(fullName, classData, 0, classData.length);
 	}
 }
\ No newline at end of file
@@ -14,10 +14,14 @@ import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 @SuppressWarnings("all")
 public class DynamicEngine {
@@ -28,6 +32,21 @@ public class DynamicEngine {
 	private URLClassLoader classLoader;
 	private String classpath;
 
+	// classpath中所有jar的指纹, 用于编译缓存的key
+	private String fingerprint;
+
+	private static final ClassCache CLASS_CACHE = new ClassCache(new File(StaticValue.HOME_FILE, "class_cache"));
+
+	// 最多保留的空闲编译环境
+	private static final int MAX_IDLE_CONTEXTS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+
+	private List<File> classpathFiles;
+
+	// classpath版本, classloader变化时增加, 旧版本的编译环境不再复用
+	private volatile int generation;
+
+	private final ConcurrentLinkedQueue<CompilerContext> contexts = new ConcurrentLinkedQueue<>();
+
 
 	public DynamicEngine(String groupName) {
 		this.groupName = groupName;
@@ -74,52 +93,133 @@ public class DynamicEngine {
 		}
 
 		this.classpath = Joiner.on(File.pathSeparator).join(classPathSet);
+		this.fingerprint = ClassCache.fingerprint(new TreeSet<>(classPathSet));
+
+		List<File> files = new ArrayList<>(classPathSet.size());
+		for (String path : new TreeSet<>(classPathSet)) {
+			files.add(new File(path));
+		}
+		this.classpathFiles = files;
+		this.generation++;
+
+		CompilerContext context;
+		while ((context = contexts.poll()) != null) {
+			closeQuietly(context);
+		}
 	}
 
-	public Class<?> javaCodeToClass(String fullClassName, String javaCode) throws IOException, CodeException {
-		Class<?> clazz = null;
-		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
-		ClassFileManager fileManager = new ClassFileManager(compiler.getStandardFileManager(diagnostics, null, null));
-		List<JavaFileObject> jfiles = new ArrayList<JavaFileObject>();
-		jfiles.add(new CharSequenceJavaFileObject(fullClassName, javaCode));
+	/**
+	 * 从池中取得一个编译环境, 没有时新建
+	 */
+	private CompilerContext borrow() throws IOException {
+		CompilerContext context;
+		while ((context = contexts.poll()) != null) {
+			if (context.getGeneration() == generation) {
+				return context;
+			}
+			closeQuietly(context);
+		}
+		long start = System.currentTimeMillis();
+		context = new CompilerContext(classpathFiles, generation);
+		LOG.info("create compiler context for group {} use time : {}", groupName, System.currentTimeMillis() - start);
+		return context;
+	}
 
+	private void giveBack(CompilerContext context) {
+		if (context.getGeneration() == generation && contexts.size() < MAX_IDLE_CONTEXTS) {
+			contexts.offer(context);
+		} else {
+			closeQuietly(context);
+		}
+	}
+
+	private void closeQuietly(CompilerContext context) {
+		try {
+			context.close();
+		} catch (IOException e) {
+			LOG.warn("close compiler context err", e);
+		}
+	}
+
+	/**
+	 * 编译参数, classpath在编译环境中设置
+	 */
+	private List<String> options() {
 		List<String> options = new ArrayList<String>();
 		options.add("-encoding");
 		options.add("UTF-8");
-		options.add("-classpath");
-		options.add(this.classpath);
 		options.add("-parameters");
         if (StaticValue.TESTRING) {
             options.add("-g");
         }
+		return options;
+	}
 
-		JavaCompiler.CompilationTask task = compiler.getTask(null, fileManager, diagnostics, options, null, jfiles);
-		boolean success = task.call();
-		if (success) {
-			JavaClassObject jco = fileManager.getMainJavaClassObject();
-			DynamicClassLoader dynamicClassLoader = new DynamicClassLoader(this.classLoader);
+	public Class<?> javaCodeToClass(String fullClassName, String javaCode) throws IOException, CodeException {
+		List<String> options = options();
+
+		String key = ClassCache.key(fullClassName, javaCode, this.fingerprint, options);
+
+		List<Map.Entry<String, byte[]>> classes = CLASS_CACHE.get(key);
+
+		if (classes != null) {
+			LOG.info("load " + fullClassName + " from class cache " + key);
+			return defineClass(classes);
+		}
+
+		classes = SharedBytecode.get(groupName, fullClassName, key);
+		if (classes != null) {
 			try {
-				List<JavaClassObject> innerClassJcos = fileManager.getInnerClassJavaClassObject();
-				if (innerClassJcos != null && innerClassJcos.size() > 0) {
-					for (JavaClassObject inner : innerClassJcos) {
-						String name = inner.getName();
-						name = name.substring(1, name.length() - 6).replace("/", ".");
-						dynamicClassLoader.loadClass(name, inner);
-					}
+				Class<?> clazz = defineClass(classes);
+				if (clazz != null) {
+					CLASS_CACHE.put(key, classes);
+					return clazz;
 				}
-				clazz = dynamicClassLoader.loadClass(fullClassName, jco);
-			} catch (Exception e) {
-				e.printStackTrace();
-				LOG.error(e.getMessage(), e);
-			} catch (Error e) {
-				LOG.error(e.getMessage(), e);
-				throw new CodeException(e.toString());
-			} finally {
-				if (dynamicClassLoader != null) {
-					dynamicClassLoader.close();
+			} catch (CodeException e) {
+				LOG.warn("define shared bytecode " + fullClassName + " err so compile it", e);
+			}
+		}
+
+		classes = compile(fullClassName, javaCode, options);
+		CLASS_CACHE.put(key, classes);
+		SharedBytecode.put(groupName, fullClassName, key, classes);
+
+		return defineClass(classes);
+	}
+
+	/**
+	 * 调用javac编译
+	 *
+	 * @return 编译出的所有class, 内部类在前主类在最后
+	 */
+	private List<Map.Entry<String, byte[]>> compile(String fullClassName, String javaCode, List<String> options) throws IOException, CodeException {
+		DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+		List<JavaFileObject> jfiles = new ArrayList<JavaFileObject>();
+		jfiles.add(new CharSequenceJavaFileObject(fullClassName, javaCode));
+
+		CompilerContext context = borrow();
+		ClassFileManager fileManager = new ClassFileManager(context.getFileManager());
+		boolean success;
+		try {
+			success = context.getCompiler().getTask(null, fileManager, diagnostics, options, null, jfiles).call();
+		} catch (RuntimeException e) {
+			closeQuietly(context);
+			throw e;
+		}
+		giveBack(context);
+
+		if (success) {
+			List<Map.Entry<String, byte[]>> classes = new ArrayList<>();
+			List<JavaClassObject> innerClassJcos = fileManager.getInnerClassJavaClassObject();
+			if (innerClassJcos != null && innerClassJcos.size() > 0) {
+				for (JavaClassObject inner : innerClassJcos) {
+					String name = inner.getName();
+					name = name.substring(1, name.length() - 6).replace("/", ".");
+					classes.add(new AbstractMap.SimpleImmutableEntry<>(name, inner.getBytes()));
 				}
 			}
+			classes.add(new AbstractMap.SimpleImmutableEntry<>(fullClassName, fileManager.getMainJavaClassObject().getBytes()));
+			return classes;
 		} else {
 			StringBuilder error = new StringBuilder();
 			for (Diagnostic<?> diagnostic : diagnostics.getDiagnostics()) {
@@ -127,7 +227,33 @@ public class DynamicEngine {
 			}
 			throw new CodeException(error.toString());
 		}
+	}
 
+	/**
+	 * 在新的DynamicClassLoader中定义编译好的class
+	 */
+	private Class<?> defineClass(List<Map.Entry<String, byte[]>> classes) throws CodeException {
+		Class<?> clazz = null;
+		DynamicClassLoader dynamicClassLoader = new DynamicClassLoader(this.classLoader);
+		try {
+			for (int i = 0; i < classes.size() - 1; i++) {
+				dynamicClassLoader.loadClass(classes.get(i).getKey(), classes.get(i).getValue());
+			}
+			Map.Entry<String, byte[]> main = classes.get(classes.size() - 1);
+			clazz = dynamicClassLoader.loadClass(main.getKey(), main.getValue());
+		} catch (Exception e) {
+			e.printStackTrace();
+			LOG.error(e.getMessage(), e);
+		} catch (Error e) {
+			LOG.error(e.getMessage(), e);
+			throw new CodeException(e.toString());
+		} finally {
+			try {
+				dynamicClassLoader.close();
+			} catch (IOException e) {
+				LOG.warn(e.getMessage(), e);
+			}
+		}
 		return clazz;
 	}
 
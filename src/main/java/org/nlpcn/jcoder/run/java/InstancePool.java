@@ -0,0 +1,119 @@
+package org.nlpcn.jcoder.run.java;
+
+import org.nlpcn.jcoder.run.annotation.Reset;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 非单例task的实例池, 保存已经注入好的空闲实例.
+ * 池属于某一次编译和ioc, 任意一个变化后整个池被丢弃
+ *
+ * @author ansj
+ */
+public class InstancePool {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InstancePool.class);
+
+	private final ConcurrentLinkedDeque<Object> idle = new ConcurrentLinkedDeque<>();
+
+	private final AtomicInteger idleSize = new AtomicInteger();
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final int max;
+
+	private final Method reset;
+
+	private final Object ioc;
+
+	private final ClassLoader classLoader;
+
+	public InstancePool(Class<?> clz, int max, Object ioc, ClassLoader classLoader) {
+		this.max = max;
+		this.ioc = ioc;
+		this.classLoader = classLoader;
+		Method reset = null;
+		for (Method method : clz.getMethods()) {
+			if (method.getAnnotation(Reset.class) != null) {
+				if (Modifier.isStatic(method.getModifiers()) || method.getParameterCount() > 0) {
+					LOG.warn("{} reset method {} must not static and no args so skip", clz.getName(), method.getName());
+					continue;
+				}
+				reset = method;
+				break;
+			}
+		}
+		this.reset = reset;
+	}
+
+	/**
+	 * 取出一个空闲实例, 没有时返回null由调用方新建
+	 */
+	public Object poll() {
+		Object obj = idle.pollFirst();
+		if (obj != null) {
+			idleSize.decrementAndGet();
+		}
+		return obj;
+	}
+
+	/**
+	 * 记录新建了一个实例
+	 */
+	public void created() {
+		created.incrementAndGet();
+	}
+
+	/**
+	 * 归还实例, 有@Reset时先调用. 池满, 重置失败或者调用出错且没有重置方法时丢弃
+	 *
+	 * @param failed 本次调用是否抛出了异常
+	 * @return 是否放回池中
+	 */
+	public boolean offer(Object obj, boolean failed) {
+		if (obj == null) {
+			return false;
+		}
+		if (reset != null) {
+			try {
+				reset.invoke(obj);
+			} catch (Exception e) {
+				LOG.warn("reset {} err so discard it", obj.getClass().getName(), e);
+				return false;
+			}
+		} else if (failed) {
+			return false;
+		}
+		if (idleSize.incrementAndGet() > max) {
+			idleSize.decrementAndGet();
+			return false;
+		}
+		idle.offerFirst(obj);
+		return true;
+	}
+
+	/**
+	 * ioc或者classloader变化后池失效
+	 */
+	public boolean stale(Object ioc, ClassLoader classLoader) {
+		return this.ioc != ioc || this.classLoader != classLoader;
+	}
+
+	public int getMax() {
+		return max;
+	}
+
+	public int idle() {
+		return idleSize.get();
+	}
+
+	public long getCreated() {
+		return created.get();
+	}
+}
@@ -2,6 +2,7 @@ package org.nlpcn.jcoder.run.java;
 
 import com.google.common.collect.Sets;
 import org.nlpcn.jcoder.domain.CodeInfo;
+import org.nlpcn.jcoder.domain.CodeInfo.ExecuteMethod;
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.run.CodeException;
 import org.nlpcn.jcoder.run.CodeRuntimeException;
@@ -27,6 +28,7 @@ import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletionStage;
 
 public class JavaRunner {
 
@@ -89,6 +91,7 @@ public class JavaRunner {
 
 				if (single != null) {
 					codeInfo.setSingle(single.value());
+					codeInfo.setPoolSize(single.value() ? 0 : single.pool());
 				}
 
 				MapCount<String> mc = new MapCount<>();
@@ -145,7 +148,9 @@ public class JavaRunner {
 	public JavaRunner instance() {
 
 		if (!codeInfo.isSingle()) {// if not single .it only instance by run
-			_instance();
+			if (codeInfo.getPoolSize() <= 0) { // 对象池模式在执行时从池中借出
+				_instance();
+			}
 			return this;
 		}
 
@@ -233,7 +238,7 @@ public class JavaRunner {
 	 * @throws CodeException
 	 */
 	public Object execute() {
-		return execute(this.codeInfo.getDefaultMethod().getMethod(), DEFAULT_ARG);
+		return execute(this.codeInfo.getDefaultMethod(), DEFAULT_ARG);
 	}
 
 	/**
@@ -243,19 +248,77 @@ public class JavaRunner {
 	 * @throws CodeException
 	 */
 	public Object execute(Method method, Object[] args) {
+		ExecuteMethod executeMethod = codeInfo.getExecuteMethod(method.getName());
+		if (executeMethod == null || !executeMethod.getMethod().equals(method)) { //不是当前编译版本的方法，走反射
+			executeMethod = null;
+		}
+		return execute(method, executeMethod, args);
+	}
+
+	/**
+	 * 通过编译时生成的调用句柄执行
+	 */
+	public Object execute(ExecuteMethod executeMethod, Object[] args) {
+		return execute(executeMethod.getMethod(), executeMethod, args);
+	}
+
+	private Object execute(Method method, ExecuteMethod executeMethod, Object[] args) {
 		long start = System.currentTimeMillis();
 
-		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		Thread thread = Thread.currentThread();
+
+		ClassLoader contextClassLoader = thread.getContextClassLoader();
 
 		Ioc contextIoc = Mvcs.getIoc();
 
+		boolean swapClassLoader = contextClassLoader != codeInfo.getClassLoader();
+
+		boolean swapIoc = contextIoc != codeInfo.getIoc();
+
+		// 对象池模式, 本次执行借出一个实例, 结束后归还
+		InstancePool pool = objInstance == null && !codeInfo.isSingle() ? codeInfo.getPool() : null;
+
+		boolean failed = true;
+
+		boolean async = false;
+
+		codeInfo.enter();
+
 		try {
-			Thread.currentThread().setContextClassLoader(codeInfo.getClassLoader());
-			Mvcs.setIoc(codeInfo.getIoc());
-			Object invoke = method.invoke(objInstance, args);
-			String endInfo = "Execute OK  " + task.getName() + "/" + method.getName() + " succesed ! use Time : " + (System.currentTimeMillis() - start);
-			LOG.info(endInfo);
+			if (pool != null) {
+				objInstance = pool.poll();
+				if (objInstance == null) {
+					_instance();
+					pool.created();
+				}
+			}
+			if (swapClassLoader) {
+				thread.setContextClassLoader(codeInfo.getClassLoader());
+			}
+			if (swapIoc) {
+				Mvcs.setIoc(codeInfo.getIoc());
+			}
+			Object invoke = executeMethod == null ? method.invoke(objInstance, args) : executeMethod.invoke(objInstance, args);
+			if (LOG.isInfoEnabled()) {
+				LOG.info("Execute OK  " + task.getName() + "/" + method.getName() + " succesed ! use Time : " + (System.currentTimeMillis() - start));
+			}
 			this.task.updateSuccess();
+			failed = false;
+			if (invoke instanceof CompletionStage) { // 异步结果完成后才归还实例和结束计数
+				InstancePool p = pool;
+				Object obj = objInstance;
+				if (pool != null) {
+					pool = null;
+					objInstance = null;
+				}
+				async = true;
+				((CompletionStage<?>) invoke).whenComplete((r, e) -> {
+					if (p != null) {
+						p.offer(obj, e != null);
+					}
+					codeInfo.exit();
+				});
+			}
 			return invoke;
 		} catch (Exception e) {
 			this.task.updateError();
@@ -263,8 +326,19 @@ public class JavaRunner {
 			e.printStackTrace();
 			throw new CodeRuntimeException(ExceptionUtil.realException(e));
 		} finally {
-			Thread.currentThread().setContextClassLoader(contextClassLoader);
-			Mvcs.setIoc(contextIoc);
+			if (!async) {
+				codeInfo.exit();
+			}
+			if (pool != null) {
+				pool.offer(objInstance, failed);
+				objInstance = null;
+			}
+			if (swapClassLoader) {
+				thread.setContextClassLoader(contextClassLoader);
+			}
+			if (swapIoc) {
+				Mvcs.setIoc(contextIoc);
+			}
 		}
 	}
 
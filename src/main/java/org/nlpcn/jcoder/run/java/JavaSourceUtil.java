@@ -3,6 +3,13 @@ package org.nlpcn.jcoder.run.java;
 import com.github.javaparser.ast.CompilationUnit;
 import com.github.javaparser.ast.PackageDeclaration;
 import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.ArrayInitializerExpr;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.MemberValuePair;
+import com.github.javaparser.ast.expr.NormalAnnotationExpr;
+import com.github.javaparser.ast.expr.SingleMemberAnnotationExpr;
+import com.github.javaparser.ast.expr.StringLiteralExpr;
 import org.nlpcn.jcoder.run.CodeException;
 import org.nlpcn.jcoder.util.JavaDocUtil;
 import org.nlpcn.jcoder.util.StringUtil;
@@ -24,6 +31,8 @@ public class JavaSourceUtil {
 
 	private String pack = null;
 
+	private TypeDeclaration type = null;
+
 	private List<String> executeMethod = new ArrayList<>();
 
 	public JavaSourceUtil(String code) throws CodeException {
@@ -48,6 +57,7 @@ public class JavaSourceUtil {
 						throw new CodeException("class not have more than one public class ");//这个情况不会发生
 					}
 					className = type.getName();
+					this.type = type;
 				}
 			}
 
@@ -91,6 +101,47 @@ public class JavaSourceUtil {
 		return null;
 	}
 
+	/**
+	 * 不编译读取public class上注解的字符串值
+	 *
+	 * @param annotation 注解的类名, 如 Schedule
+	 * @param member     注解的属性名
+	 * @return 没有时返回空集合
+	 */
+	public List<String> getAnnotationValues(String annotation, String member) {
+		List<String> result = new ArrayList<>();
+		if (type.getAnnotations() == null) {
+			return result;
+		}
+		for (AnnotationExpr expr : type.getAnnotations()) {
+			if (!annotation.equals(expr.getName().getName())) {
+				continue;
+			}
+			Expression value = null;
+			if (expr instanceof SingleMemberAnnotationExpr && "value".equals(member)) {
+				value = ((SingleMemberAnnotationExpr) expr).getMemberValue();
+			} else if (expr instanceof NormalAnnotationExpr) {
+				for (MemberValuePair pair : ((NormalAnnotationExpr) expr).getPairs()) {
+					if (member.equals(pair.getName())) {
+						value = pair.getValue();
+					}
+				}
+			}
+			if (value instanceof ArrayInitializerExpr) {
+				if (((ArrayInitializerExpr) value).getValues() != null) {
+					for (Expression v : ((ArrayInitializerExpr) value).getValues()) {
+						if (v instanceof StringLiteralExpr) {
+							result.add(((StringLiteralExpr) v).getValue());
+						}
+					}
+				}
+			} else if (value instanceof StringLiteralExpr) {
+				result.add(((StringLiteralExpr) value).getValue());
+			}
+		}
+		return result;
+	}
+
 	public String getPackage() {
 		return pack;
 	}
@@ -0,0 +1,104 @@
+package org.nlpcn.jcoder.run.java;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.data.Stat;
+import org.nlpcn.jcoder.service.SharedSpaceService;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 集群共享的编译结果, 编译成功的节点发布字节码, 其他节点classpath相同时直接加载不再编译
+ * <p>
+ * /jcoder/bytecode/[groupName]/[className]/[key] key为编译缓存的key, 包含源码, classpath指纹和jdk版本
+ *
+ * @author ansj
+ */
+class SharedBytecode {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SharedBytecode.class);
+
+	// zk 单节点数据不能过大
+	private static final int MAX_BYTES = 512 * 1024;
+
+	// 每个类最多保留的版本数
+	private static final int MAX_VERSIONS = 4;
+
+	private static CuratorFramework zk() {
+		return StaticValue.space() == null ? null : StaticValue.space().getZk();
+	}
+
+	private static String path(String groupName, String fullClassName) {
+		return SharedSpaceService.BYTECODE_PATH + "/" + groupName + "/" + fullClassName;
+	}
+
+	/**
+	 * 获取其他节点发布的字节码, 没有或者出错时返回null
+	 */
+	static List<Map.Entry<String, byte[]>> get(String groupName, String fullClassName, String key) {
+		CuratorFramework zk = zk();
+		if (zk == null || groupName == null) {
+			return null;
+		}
+		try {
+			byte[] data = zk.getData().forPath(path(groupName, fullClassName) + "/" + key);
+			LOG.info("load {}/{} bytecode from cluster {}", groupName, fullClassName, key);
+			return ClassCache.decode(data);
+		} catch (KeeperException.NoNodeException e) {
+			return null;
+		} catch (Exception e) {
+			LOG.warn("get shared bytecode {}/{} err", groupName, fullClassName, e);
+			return null;
+		}
+	}
+
+	/**
+	 * 发布编译好的字节码, 同一个类只保留最近的几个版本
+	 */
+	static void put(String groupName, String fullClassName, String key, List<Map.Entry<String, byte[]>> classes) {
+		CuratorFramework zk = zk();
+		if (zk == null || groupName == null) {
+			return;
+		}
+		String path = path(groupName, fullClassName);
+		try {
+			byte[] data = ClassCache.encode(classes);
+			if (data.length > MAX_BYTES) {
+				LOG.info("{}/{} bytecode too large {} so not share it", groupName, fullClassName, data.length);
+				return;
+			}
+			try {
+				zk.create().creatingParentsIfNeeded().forPath(path + "/" + key, data);
+			} catch (KeeperException.NodeExistsException e) {
+				return;
+			}
+
+			List<String> children = zk.getChildren().forPath(path);
+			if (children.size() > MAX_VERSIONS) {
+				List<Object[]> versions = new ArrayList<>(children.size());
+				for (String child : children) {
+					Stat stat = zk.checkExists().forPath(path + "/" + child);
+					if (stat != null) {
+						versions.add(new Object[]{child, stat.getCtime()});
+					}
+				}
+				versions.sort(Comparator.comparingLong(o -> (Long) o[1]));
+				for (int i = 0; i < versions.size() - MAX_VERSIONS; i++) {
+					try {
+						zk.delete().forPath(path + "/" + versions.get(i)[0]);
+					} catch (KeeperException.NoNodeException e) {
+						// 已经被其他节点删除
+					}
+				}
+			}
+		} catch (Exception e) {
+			LOG.warn("put shared bytecode {}/{} err", groupName, fullClassName, e);
+		}
+	}
+}
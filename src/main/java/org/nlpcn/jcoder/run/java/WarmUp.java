@@ -0,0 +1,168 @@
+package org.nlpcn.jcoder.run.java;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.nlpcn.jcoder.domain.CodeInfo.ExecuteMethod;
+import org.nlpcn.jcoder.domain.Group;
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.service.GroupService;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * group的预热, 批量编译所有task, 构建调用链并执行@WarmUp方法.
+ * 预热中的group在集群中不是current, 不会有流量转发过来
+ *
+ * @author ansj
+ */
+public class WarmUp {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WarmUp.class);
+
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(StaticValue.WARM_UP_THREADS, StaticValue.WARM_UP_THREADS, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(), new ThreadFactoryBuilder().setNameFormat("jcoder-warm-up-%d").setDaemon(true).build());
+
+	// 正在预热的group
+	private static final Set<String> WARMING = ConcurrentHashMap.newKeySet();
+
+	static {
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
+	public static boolean isWarming(String groupName) {
+		return WARMING.contains(groupName);
+	}
+
+	/**
+	 * 标记group开始预热, 如果已经在集群中则立即下线
+	 */
+	public static void begin(String groupName) {
+		if (!WARMING.add(groupName) || StaticValue.space() == null) {
+			return;
+		}
+		try {
+			StaticValue.space().different(groupName, null, null, false, true);
+		} catch (Exception e) {
+			LOG.error("offline {} for warm up err", groupName, e);
+		}
+	}
+
+	/**
+	 * 预热结束, 重新加入集群计算current
+	 */
+	public static void end(String groupName) {
+		if (!WARMING.remove(groupName) || StaticValue.space() == null) {
+			return;
+		}
+		for (Group group : GroupService.allLocalGroup()) {
+			if (group.getName().equals(groupName)) {
+				try {
+					StaticValue.space().joinCluster(group);
+				} catch (Exception e) {
+					LOG.error("join cluster {} after warm up err", groupName, e);
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * 并行编译task, 返回编译成功的task, 编译失败的task直接跳过.
+	 * 每个task在自己的classloader中加载, 只能单独编译, 编译器和文件管理器从group的编译池中复用
+	 */
+	public static List<Task> compile(List<Task> tasks) {
+		List<CompletableFuture<Task>> futures = new ArrayList<>(tasks.size());
+		for (Task task : tasks) {
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				try {
+					new JavaRunner(task).compile();
+					return task;
+				} catch (Exception e) {
+					LOG.error("compile {}/{} err ", task.getGroupName(), task.getName(), e);
+					return null;
+				}
+			}, POOL));
+		}
+
+		List<Task> result = new ArrayList<>(tasks.size());
+		for (CompletableFuture<Task> future : futures) {
+			Task task = future.join();
+			if (task != null) {
+				result.add(task);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 构建api的调用链并执行@WarmUp方法, 预热失败只记录日志
+	 */
+	public static void warm(List<Task> tasks) {
+		List<CompletableFuture<Void>> futures = new ArrayList<>(tasks.size());
+		for (Task task : tasks) {
+			if (task.getType() != 1 || task.getStatus() != 1) {
+				continue;
+			}
+			futures.add(CompletableFuture.runAsync(() -> warm(task), POOL));
+		}
+		futures.forEach(CompletableFuture::join);
+	}
+
+	private static void warm(Task task) {
+		long start = System.currentTimeMillis();
+		try {
+			JavaRunner runner = new JavaRunner(task).compile().instance();
+
+			for (ExecuteMethod method : task.codeInfo().getExecuteMethods()) {
+				StaticValue.MAPPING.getOrCreateByUrl(task.getGroupName(), task.getName(), method.getName());
+			}
+
+			invoke(task, runner);
+			LOG.info("warm up {}/{} ok use time : {}", task.getGroupName(), task.getName(), System.currentTimeMillis() - start);
+		} catch (Exception e) {
+			LOG.error("warm up {}/{} err ", task.getGroupName(), task.getName(), e);
+		}
+	}
+
+	/**
+	 * 在新版本的classloader中编译并实例化task, 执行@WarmUp方法, 不影响正在服务的旧版本.
+	 * 编译失败时抛出异常, @WarmUp方法出错只记录日志
+	 */
+	public static void prepare(Task task) throws Exception {
+		long start = System.currentTimeMillis();
+		JavaRunner runner = new JavaRunner(task).compile().instance();
+		try {
+			invoke(task, runner);
+		} catch (Exception e) {
+			LOG.error("warm up {}/{} err ", task.getGroupName(), task.getName(), e);
+		}
+		LOG.info("prepare {}/{} ok use time : {}", task.getGroupName(), task.getName(), System.currentTimeMillis() - start);
+	}
+
+	private static void invoke(Task task, JavaRunner runner) {
+		for (Method method : task.codeInfo().getClassz().getMethods()) {
+			org.nlpcn.jcoder.run.annotation.WarmUp warmUp = method.getAnnotation(org.nlpcn.jcoder.run.annotation.WarmUp.class);
+			if (warmUp == null) {
+				continue;
+			}
+			if (!Modifier.isPublic(method.getModifiers()) || method.getParameterCount() > 0) {
+				LOG.warn("{}/{} warm up method {} must public and no args so skip", task.getGroupName(), task.getName(), method.getName());
+				continue;
+			}
+			for (int i = 0; i < warmUp.times(); i++) {
+				runner.execute(method, new Object[0]);
+			}
+		}
+	}
+}
@@ -34,6 +34,7 @@ public class ApiActionChainMaker implements ActionChainMaker {
 		} catch (Throwable e) {
 			e.printStackTrace();
 		}
+		apiMethodInvokeProcessor.setErrorProcessor(error); // 异步完成的请求出错时使用
 
 		return new JcoderActionChain(list, apiMethodInvokeProcessor, error, ai);
 	}
@@ -17,6 +17,7 @@ public class ApiActionHandler {
 	public ApiActionHandler(NutConfig conf) {
 		this.config = conf;
 		config.setUrlMapping(null);
+		StaticValue.MAPPING.setConfig(conf);
 	}
 
 	public boolean handle(HttpServletRequest req, HttpServletResponse resp) {
@@ -0,0 +1,94 @@
+package org.nlpcn.jcoder.run.mvc;
+
+import org.nutz.mvc.ActionContext;
+
+/**
+ * 解析后的api路由 /api/[groupName]/[className]/[methodName], 每个api只创建一次并被调用链中的处理器共享
+ *
+ * @author ansj
+ */
+public final class ApiRoute {
+
+	/**
+	 * 在ActionContext中存放路由的key
+	 */
+	public static final String KEY = ApiRoute.class.getName();
+
+	private static final String PREFIX = "/api/";
+
+	private final String path;
+
+	private final String groupName;
+
+	private final String className;
+
+	private final String methodName;
+
+	private final String taskKey;
+
+	private ApiRoute(String path, String groupName, String className, String methodName) {
+		this.path = path;
+		this.groupName = groupName;
+		this.className = className;
+		this.methodName = methodName;
+		this.taskKey = groupName + "/" + className;
+	}
+
+	/**
+	 * 解析路径, 格式不正确时返回null
+	 */
+	public static ApiRoute parse(String path) {
+		if (path == null || !path.startsWith(PREFIX)) {
+			return null;
+		}
+		int g = path.indexOf('/', PREFIX.length());
+		if (g <= PREFIX.length()) {
+			return null;
+		}
+		int c = path.indexOf('/', g + 1);
+		if (c <= g + 1 || c == path.length() - 1) {
+			return null;
+		}
+		int m = path.indexOf('/', c + 1);
+		String methodName = m == -1 ? path.substring(c + 1) : path.substring(c + 1, m);
+		if (methodName.isEmpty()) {
+			return null;
+		}
+		return new ApiRoute(path, path.substring(PREFIX.length(), g), path.substring(g + 1, c), methodName);
+	}
+
+	/**
+	 * 获得当前请求的路由, 由UrlMapping在查找时放入
+	 */
+	public static ApiRoute of(ActionContext ac) {
+		return ac == null ? null : (ApiRoute) ac.get(KEY);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public String getGroupName() {
+		return groupName;
+	}
+
+	public String getClassName() {
+		return className;
+	}
+
+	public String getMethodName() {
+		return methodName;
+	}
+
+	/**
+	 * groupName/className
+	 */
+	public String getTaskKey() {
+		return taskKey;
+	}
+
+	@Override
+	public String toString() {
+		return path;
+	}
+}
@@ -7,8 +7,6 @@ import org.nlpcn.jcoder.run.java.JavaRunner;
 import org.nlpcn.jcoder.run.mvc.processor.ApiActionInvoker;
 import org.nlpcn.jcoder.service.TaskService;
 import org.nlpcn.jcoder.util.ExceptionUtil;
-import org.nlpcn.jcoder.util.StaticValue;
-import org.nutz.http.Http;
 import org.nutz.lang.Lang;
 import org.nutz.lang.Strings;
 import org.nutz.log.Log;
@@ -22,9 +20,9 @@ import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 public class ApiUrlMappingImpl implements UrlMapping {
 
@@ -32,13 +30,25 @@ public class ApiUrlMappingImpl implements UrlMapping {
 
 	protected Map<String, ApiActionInvoker> map;
 
-	private Map<String, Lock> lockMap = new HashMap<>();
+	/**
+	 * 正在创建中的task, key:groupName/className, 创建完成后移除
+	 */
+	private final Map<String, CompletableFuture<Void>> creating = new ConcurrentHashMap<>();
+
+	/**
+	 * web启动时设置, 用于在进程内构建调用链
+	 */
+	private volatile NutConfig config;
 
 	public ApiUrlMappingImpl() {
 		this.map = new ConcurrentHashMap<String, ApiActionInvoker>();
 	}
 
 	public void add(ActionChainMaker maker, ActionInfo ai, NutConfig config) {
+		add(map, maker, ai, config);
+	}
+
+	private void add(Map<String, ApiActionInvoker> target, ActionChainMaker maker, ActionInfo ai, NutConfig config) {
 
 		// 检查所有的path
 		String[] paths = ai.getPaths();
@@ -56,14 +66,15 @@ public class ApiUrlMappingImpl implements UrlMapping {
 		for (String path : ai.getPaths()) {
 
 			// 尝试获取，看看有没有创建过这个 URL 调用者
-			ApiActionInvoker invoker = map.get(path);
+			ApiActionInvoker invoker = target.get(path);
 
 			// 如果没有增加过这个 URL 的调用者，为其创建备忘记录，并加入索引
 			if (null == invoker) {
-				invoker = new ApiActionInvoker();
-				map.put(path, invoker);
+				invoker = target.computeIfAbsent(path, p -> new ApiActionInvoker(ApiRoute.parse(p)));
 				// 记录一下方法与 url 的映射
-				config.getAtMap().addMethod(path, ai.getMethod());
+				if (config != null) {
+					config.getAtMap().addMethod(path, ai.getMethod());
+				}
 			}
 
 			// 将动作链，根据特殊的 HTTP 方法，保存到调用者内部
@@ -75,7 +86,7 @@ public class ApiUrlMappingImpl implements UrlMapping {
 
 		// TODO 下面个IF要不要转换到NutLoading中去呢?
 		// 记录一个 @At.key
-		if (!Strings.isBlank(ai.getPathKey()))
+		if (config != null && !Strings.isBlank(ai.getPathKey()))
 			config.getAtMap().add(ai.getPathKey(), ai.getPaths()[0]);
 	}
 
@@ -97,10 +108,19 @@ public class ApiUrlMappingImpl implements UrlMapping {
 
 		ac.setSuffix(rp.getSuffix());
 
-		ApiActionInvoker invoker = getOrCreate(config, path);
+		ApiActionInvoker invoker = map.get(path);
+
+		if (invoker == null) {
+			ApiRoute route = ApiRoute.parse(path);
+			if (route == null) {
+				throw new RuntimeException(path + " not match any class it must /api/[groupName]/[className]/[methodName]");
+			}
+			invoker = getOrCreate(config, route);
+		}
 
 		if (invoker != null) {
 			setActionSomeArgs(ac, path);
+			ac.set(ApiRoute.KEY, invoker.getRoute());
 			ActionChain chain = invoker.getActionChain(ac);
 			if (chain != null) {
 				if (log.isDebugEnabled()) {
@@ -115,29 +135,38 @@ public class ApiUrlMappingImpl implements UrlMapping {
 	}
 
 	/**
-	 * 获得一个ApiActionInvoker如果不存在则创建一个
-	 *
-	 * @param config
-	 * @param path
-	 * @return
+	 * 获得一个ApiActionInvoker如果不存在则创建一个, 同一个task同时只会有一个线程在创建, 其他线程等待其结果
 	 */
-	private ApiActionInvoker getOrCreate(NutConfig config, String path) {
-		ApiActionInvoker invoker = map.get(path);
-		if (invoker == null) {
-			Lock lock = null;
-			synchronized (this) {
-				lock = lockMap.getOrDefault(path, new ReentrantLock());
-			}
-			lock.lock();
+	private ApiActionInvoker getOrCreate(NutConfig config, ApiRoute route) {
+		ApiActionInvoker invoker = map.get(route.getPath());
+		if (invoker != null) {
+			return invoker;
+		}
+
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		CompletableFuture<Void> running = creating.putIfAbsent(route.getTaskKey(), future);
+
+		if (running == null) {
 			try {
-				if ((invoker = map.get(path)) == null) {
-					invoker = createInvoker(config, path);
+				if (map.get(route.getPath()) == null) {
+					createInvoker(config, route);
 				}
+				future.complete(null);
+			} catch (RuntimeException e) {
+				future.completeExceptionally(e);
+				throw e;
 			} finally {
-				lock.unlock();
+				creating.remove(route.getTaskKey(), future);
+			}
+		} else {
+			try {
+				running.join();
+			} catch (CompletionException e) {
+				throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
 			}
 		}
-		return invoker;
+
+		return map.get(route.getPath());
 	}
 
 	private void setActionSomeArgs(ActionContext ac, String path) {
@@ -145,16 +174,11 @@ public class ApiUrlMappingImpl implements UrlMapping {
 		ac.setPathArgs(new LinkedList<String>());
 	}
 
-	private ApiActionInvoker createInvoker(NutConfig config, String path) {
-
-		String[] split = path.split("/");
-
-		if (split.length < 5) {
-			throw new RuntimeException(path + " not match any class it must /api/[groupName]/[className]/[methodName]");
-		}
-
-		Task task = TaskService.findTaskByCache(split[2], split[3]);
+	private void createInvoker(NutConfig config, ApiRoute route) {
+		createInvoker(config, TaskService.findTaskByCache(route.getGroupName(), route.getClassName()), map);
+	}
 
+	private void createInvoker(NutConfig config, Task task, Map<String, ApiActionInvoker> target) {
 		try {
 			if (task != null && task.getStatus() == 1 && task.getType() == 1) {
 
@@ -178,15 +202,13 @@ public class ApiUrlMappingImpl implements UrlMapping {
 
 					info.setPaths(new String[]{"/api/" + task.getGroupName() + "/" + task.getName() + "/" + method.getName()});
 
-					this.add(aacm, info, config);
+					this.add(target, aacm, info, config);
 				}
 			}
 		} catch (Exception e) {
 			e.printStackTrace();
 			throw new RuntimeException(ExceptionUtil.realException(e));
 		}
-
-		return map.get(path);
 	}
 
 	/**
@@ -205,7 +227,35 @@ public class ApiUrlMappingImpl implements UrlMapping {
 	}
 
 	/**
-	 * 通过一个地址获取ActionInvoker
+	 * 蓝绿切换, 先为新版本的task构建全部调用链, 再逐个替换地址, 最后删除新版本中不存在的地址.
+	 * 旧的调用链不再接收新请求, 已经取得它的请求继续在旧版本中执行完成
+	 */
+	public void swap(Task oldTask, Task newTask) {
+		Map<String, ApiActionInvoker> created = new HashMap<>();
+		createInvoker(config, newTask, created);
+
+		String prefix = "/api/" + oldTask.getGroupName() + "/" + oldTask.getName() + "/";
+		synchronized (map) {
+			map.putAll(created);
+			for (String path : map.keySet()) {
+				if (path.startsWith(prefix) && !created.containsKey(path)) {
+					map.remove(path);
+					log.info("remove api " + path);
+				}
+			}
+		}
+		log.infof("swap api %s/%s to new version %s", newTask.getGroupName(), newTask.getName(), created.keySet());
+	}
+
+	/**
+	 * 设置web的配置, 由ApiActionHandler在启动时调用
+	 */
+	public void setConfig(NutConfig config) {
+		this.config = config;
+	}
+
+	/**
+	 * 通过一个地址获取ActionInvoker, 不存在时直接在进程内编译并构建调用链
 	 *
 	 * @param className
 	 * @param methodName
@@ -215,10 +265,15 @@ public class ApiUrlMappingImpl implements UrlMapping {
 		String path = "/api/" + groupName + "/" + className + "/" + methodName;
 		ApiActionInvoker apiActionInvoker = map.get(path);
 
-		if (apiActionInvoker == null) { // 调用http接口进行渲染填充map
-			//TODO: 这里可能不需要一次http请求
-			Http.get("http://127.0.0.1:" + System.getProperty(StaticValue.PREFIX + "port") + path + "?_rpc_init=true");
-			apiActionInvoker = map.get(path);
+		if (apiActionInvoker == null) {
+			if (config == null) {
+				throw new IllegalStateException("web not started, can not create api " + path);
+			}
+			ApiRoute route = ApiRoute.parse(path);
+			if (route == null) {
+				throw new RuntimeException(path + " not match any class it must /api/[groupName]/[className]/[methodName]");
+			}
+			apiActionInvoker = getOrCreate(config, route);
 		}
 
 		return apiActionInvoker;
@@ -1,71 +1,65 @@
 package org.nlpcn.jcoder.run.mvc.cache;
 
-import com.alibaba.fastjson.JSON;
-import org.nutz.json.Json;
-
-import javax.servlet.ServletContext;
-import javax.servlet.ServletRequest;
-import javax.servlet.ServletResponse;
-import javax.servlet.http.HttpSession;
 import java.util.Arrays;
-import java.util.Objects;
 
+/**
+ * 缓存的key, 创建时一次性计算参数的结构化编码和hash, 之后的hashCode和equals不再序列化参数
+ */
 public class Args {
 
-	private Object[] args;
+	private final Object[] args;
+
+	private final byte[] key;
+
+	private final int hash;
 
 	public Args(Object[] args) {
+		this(args, null);
+	}
+
+	/**
+	 * @param skip 不参与缓存key的参数位置, 一般是servlet相关参数, 可以为null
+	 */
+	public Args(Object[] args, boolean[] skip) {
 		this.args = args;
+		this.key = KeyEncoder.encode(args, skip);
+		this.hash = Arrays.hashCode(key);
 	}
 
 	public static Args create(Object[] args) {
 		return new Args(args);
 	}
 
-	public static void main(String[] args) {
-		Object temp = new Object[0];
-
-		System.out.println(temp instanceof Object[]);
+	public static Args create(Object[] args, boolean[] skip) {
+		return new Args(args, skip);
 	}
 
 	public Object[] getArgs() {
 		return args;
 	}
 
-	public void setArgs(Object[] args) {
-		this.args = args;
+	/**
+	 * 参数的编码字节
+	 */
+	public byte[] getKey() {
+		return key;
 	}
 
 	@Override
 	public int hashCode() {
-		return Objects.hash(args);
+		return hash;
 	}
 
 	@Override
 	public boolean equals(Object obj) {
-		if (!(obj instanceof Args)) {
-			return false;
-		}
-
-		Object[] temp = ((Args) obj).getArgs();
-
-		if (temp.length != args.length) {
-			return false;
+		if (this == obj) {
+			return true;
 		}
-
-		for (int i = 0; i < temp.length; i++) {
-
-			if (Objects.deepEquals(args[i], temp[i])) {
-				continue;
-			}
-			if (jsonEqual(args[i], temp[i])) {
-				continue;
-			}
-
+		if (!(obj instanceof Args)) {
 			return false;
 		}
-
-		return true;
+		Args other = (Args) obj;
+		return hash == other.hash && Arrays.equals(key, other.key);
 	}
 
 	@Override
@@ -73,33 +67,4 @@ public class Args {
 		return Arrays.toString(args);
 	}
 
-	private boolean jsonEqual(Object o1, Object o2) {
-
-		// in deepequals , must not be null at the same time
-		if (o1 == null || o2 == null) {
-			return false;
-		}
-
-		if (!o1.getClass().equals(o2.getClass())) {
-			return false;
-		}
-
-		if (o1 instanceof ServletRequest) {
-			return true;
-		}
-
-		if (o1 instanceof ServletResponse) {
-			return true;
-		}
-
-		if (o1 instanceof HttpSession) {
-			return true;
-		}
-
-		if (o1 instanceof ServletContext) {
-			return true;
-		}
-
-		return Json.toJson(o1).equals(JSON.toJSON(o2));
-	}
 }
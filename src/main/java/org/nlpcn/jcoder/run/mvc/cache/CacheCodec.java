@@ -0,0 +1,67 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * 缓存值的序列化, 格式为 [写入时间][key长度][key][json]
+ * json 按照方法的返回类型反序列化, 返回值声明为Object时会得到JSONObject
+ *
+ * @author ansj
+ */
+public class CacheCodec {
+
+	private static final byte[] NULL_VALUE = "null".getBytes();
+
+	private static final int HEAD = 8 + 4;
+
+	public static byte[] encode(byte[] key, Object value, long time) {
+		byte[] json = value == null || value == CacheEntry.NULL ? NULL_VALUE : JSON.toJSONBytes(value, SerializerFeature.DisableCircularReferenceDetect);
+		ByteBuffer buffer = ByteBuffer.allocate(HEAD + key.length + json.length);
+		buffer.putLong(time);
+		buffer.putInt(key.length);
+		buffer.put(key);
+		buffer.put(json);
+		return buffer.array();
+	}
+
+	/**
+	 * 写入时间
+	 */
+	public static long time(ByteBuffer buffer) {
+		return buffer.getLong(0);
+	}
+
+	/**
+	 * 判断数据是否是这个key的, 防止hash冲突
+	 */
+	public static boolean match(ByteBuffer buffer, byte[] key) {
+		if (buffer.limit() < HEAD || buffer.getInt(8) != key.length || buffer.limit() < HEAD + key.length) {
+			return false;
+		}
+		ByteBuffer dup = buffer.duplicate();
+		dup.limit(HEAD + key.length).position(HEAD);
+		return dup.equals(ByteBuffer.wrap(key));
+	}
+
+	/**
+	 * 解码值, null 会被解码为 CacheEntry.NULL
+	 */
+	public static Object decode(ByteBuffer buffer, Type type) {
+		int start = HEAD + buffer.getInt(8);
+		byte[] json = new byte[buffer.limit() - start];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(start);
+		dup.get(json);
+		if (Arrays.equals(json, NULL_VALUE)) {
+			return CacheEntry.NULL;
+		}
+		Object value = JSON.parseObject(json, type);
+		return value == null ? CacheEntry.NULL : value;
+	}
+
+}
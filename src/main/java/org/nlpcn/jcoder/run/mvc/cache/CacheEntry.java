@@ -1,22 +1,33 @@
 package org.nlpcn.jcoder.run.mvc.cache;
 
+import com.google.common.base.Function;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListenableFutureTask;
-import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.run.annotation.Cache;
 import org.nlpcn.jcoder.run.java.JavaRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.Method;
-import java.util.concurrent.Callable;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * api请求实体
@@ -27,6 +38,13 @@ public class CacheEntry {
 
 	public static final Object NULL = new Object();
 	private static final Logger LOG = LoggerFactory.getLogger(CacheEntry.class);
+
+	// 本节点所有的缓存, key 为 group/task/method
+	private static final Map<String, CacheEntry> ENTRIES = new ConcurrentHashMap<>();
+
+	// 最大刷新抖动毫秒数
+	private static final long MAX_JITTER = 60000L;
+
 	private Method method;
 
 	// 缓存时间
@@ -43,9 +61,36 @@ public class CacheEntry {
 
 	private LoadingCache<Args, Object> cache = null;
 
-	private ListeningExecutorService backgroundRefreshPools =
-			MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(20));
+	// 不参与缓存key的参数位置
+	private boolean[] skip;
+
+	// 因为配额不足跳过的刷新次数
+	private AtomicLong refreshSkipped = new AtomicLong();
+
+	// 集群共享的二级缓存
+	private SharedCache sharedCache;
+
+	// 二级缓存命中次数
+	private AtomicLong sharedHit = new AtomicLong();
+
+	// 是否存储在堆外
+	private boolean offHeap = false;
+
+	// 堆外存储的最大字节数
+	private long maxBytes = 64L * 1024 * 1024;
+
+	// 当前堆外存储的字节数
+	private AtomicLong bytes = new AtomicLong();
+
 	public CacheEntry(Task task, Method method, int time, int size, boolean block) {
+		this(task, method, time, size, block, false, false, 0);
+	}
+
+	public CacheEntry(Task task, Method method, Cache conf) {
+		this(task, method, conf.time(), conf.size(), conf.block(), conf.shared(), conf.offHeap(), conf.maxBytes());
+	}
+
+	public CacheEntry(Task task, Method method, int time, int size, boolean block, boolean shared, boolean offHeap, long maxBytes) {
 		this.task = task;
 
 		if (size > 0) {
@@ -56,52 +101,210 @@ public class CacheEntry {
 
 		this.method = method;
 
+		this.skip = KeyEncoder.skipMask(method);
+
 		this.time = time;
 
 		if (time <= 0) {
 			this.time = Integer.MAX_VALUE;
 		}
 
+		CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().refreshAfterWrite(this.time, TimeUnit.SECONDS).recordStats();
+
+		if (offHeap) {
+			this.offHeap = true;
+			this.maxBytes = maxBytes > 0 ? maxBytes : this.maxBytes;
+			builder.maximumWeight(this.maxBytes).weigher((Args k, Object v) -> weight(k, v)).removalListener((RemovalListener<Args, Object>) n -> bytes.addAndGet(-weight(n.getKey(), n.getValue())));
+		} else if (this.block) {
+			builder.maximumSize(this.size).softValues();
+		} else {
+			builder.maximumSize(this.size);
+		}
+
 		if (this.block) {
-			cache = CacheBuilder.newBuilder().maximumSize(this.size).softValues().refreshAfterWrite(time, TimeUnit.SECONDS).build(new CacheLoader<Args, Object>() {
+			cache = builder.build(new CacheLoader<Args, Object>() {
 				@Override
 				public Object load(Args args) {
-					return executeNoCache(args);
+					return store(args, executeNoCache(args));
 				}
 			});
 
 		} else {
-			cache = CacheBuilder.newBuilder().maximumSize(this.size).refreshAfterWrite(time, TimeUnit.SECONDS).build(new CacheLoader<Args, Object>() {
+			final long jitter = Math.min(this.time * 100L, MAX_JITTER); // 刷新时间的10%
+			cache = builder.build(new CacheLoader<Args, Object>() {
 
 				@Override
 				public Object load(Args args) {
-					return executeNoCache(args);
+					return store(args, executeNoCache(args));
 				}
 
 				@Override
 				public ListenableFuture<Object> reload(final Args args, Object oldValue) {
-					return backgroundRefreshPools.submit(() -> executeNoCache(args));
+					ListenableFuture<Object> future = RefreshScheduler.refresh(task.getGroupName(), new AbstractMap.SimpleImmutableEntry<>(CacheEntry.this, args), oldValue, jitter, () -> store(args, executeNoCache(args)));
+					if (future == null) {
+						future = Futures.immediateFuture(oldValue);
+					}
+					// 跳过刷新时旧值会替换自己, 移除时减去的字节数需要加回来
+					return Futures.transform(future, (Function<Object, Object>) value -> {
+						if (value == oldValue) {
+							refreshSkipped.incrementAndGet();
+							bytes.addAndGet(offHeap ? weight(args, value) : 0);
+						}
+						return value;
+					}, MoreExecutors.directExecutor());
 				}
 
 			});
 		}
 
+		if (shared) {
+			sharedCache = new SharedCache(task, method, TimeUnit.SECONDS.toMillis(this.time)).start(cache::invalidateAll);
+		}
+
+		CacheEntry old = ENTRIES.put(key(task.getGroupName(), task.getName(), method.getName()), this);
+		if (old != null && old != this) {
+			old.close();
+		}
+	}
+
+	private static String key(String groupName, String taskName, String methodName) {
+		return groupName + "/" + taskName + "/" + methodName;
+	}
+
+	/**
+	 * 移除一个task的所有缓存统计, task重新加载时调用
+	 */
+	public static void remove(String groupName, String taskName) {
+		String prefix = groupName + "/" + taskName + "/";
+		ENTRIES.entrySet().removeIf(e -> {
+			if (e.getKey().startsWith(prefix)) {
+				e.getValue().close();
+				return true;
+			}
+			return false;
+		});
+	}
+
+	/**
+	 * 获得本节点所有缓存的统计信息
+	 *
+	 * @param groupName 为空时返回全部
+	 */
+	public static List<Map<String, Object>> allStats(String groupName) {
+		Collection<CacheEntry> entries = ENTRIES.values();
+		List<Map<String, Object>> result = new ArrayList<>(entries.size());
+		for (CacheEntry entry : entries) {
+			if (groupName == null || groupName.length() == 0 || groupName.equals(entry.task.getGroupName())) {
+				result.add(entry.stats());
+			}
+		}
+		return result;
 	}
 
 	public Object execute(Object[] param) throws ExecutionException {
 
-		Args args = Args.create(param);
+		Args args = Args.create(param, skip);
 
 		long start = System.currentTimeMillis();
 		try {
-			return cache.get(args);
+			Object value = cache.get(args);
+			if (offHeap) {
+				value = CacheCodec.decode((ByteBuffer) value, method.getGenericReturnType());
+			}
+			return value;
 		} finally {
-			LOG.info("by cache action " + this.task.getName() + "/" + this.method.getName() + " Param:" + args + " ok ! use time : " + (System.currentTimeMillis() - start));
+			if (LOG.isInfoEnabled()) {
+				LOG.info("by cache action " + this.task.getName() + "/" + this.method.getName() + " Param:" + args + " ok ! use time : " + (System.currentTimeMillis() - start));
+			}
+		}
+	}
+
+	/**
+	 * 清空缓存, 共享缓存会通知所有节点
+	 */
+	public void clear() {
+		cache.invalidateAll();
+		if (sharedCache != null) {
+			sharedCache.invalidate();
+		}
+	}
+
+	/**
+	 * 停止监听共享缓存
+	 */
+	public void close() {
+		if (sharedCache != null) {
+			sharedCache.close();
 		}
 	}
 
+	/**
+	 * 当前缓存的统计信息
+	 */
+	public Map<String, Object> stats() {
+		CacheStats stats = cache.stats();
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("groupName", task.getGroupName());
+		map.put("className", task.getName());
+		map.put("methodName", method.getName());
+		map.put("block", block);
+		map.put("time", time);
+		map.put("maxSize", size);
+		map.put("size", cache.size());
+		map.put("hitCount", stats.hitCount());
+		map.put("missCount", stats.missCount());
+		map.put("hitRate", stats.hitRate());
+		map.put("loadSuccessCount", stats.loadSuccessCount());
+		map.put("loadExceptionCount", stats.loadExceptionCount());
+		map.put("averageLoadPenalty", TimeUnit.NANOSECONDS.toMillis((long) stats.averageLoadPenalty()));
+		map.put("evictionCount", stats.evictionCount());
+		map.put("refreshSkipped", refreshSkipped.get());
+		map.put("shared", sharedCache != null);
+		map.put("offHeap", offHeap);
+		if (offHeap) {
+			map.put("maxBytes", maxBytes);
+			map.put("bytes", bytes.get());
+		}
+		map.put("sharedHitCount", sharedHit.get());
+		return map;
+	}
+
+	/**
+	 * 堆外模式下将结果序列化到direct buffer中
+	 */
+	private Object store(Args args, Object result) {
+		if (!offHeap) {
+			return result;
+		}
+		byte[] data = CacheCodec.encode(args.getKey(), result, System.currentTimeMillis());
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data).flip();
+		bytes.addAndGet(weight(args, buffer));
+		return buffer;
+	}
+
+	private static int weight(Args args, Object value) {
+		if (value instanceof ByteBuffer) {
+			return ((ByteBuffer) value).capacity() + args.getKey().length;
+		}
+		return 1;
+	}
+
 	private Object executeNoCache(Args args) {
+		if (sharedCache != null) {
+			Object result = sharedCache.get(args, TimeUnit.SECONDS.toMillis(time));
+			if (result != null) {
+				sharedHit.incrementAndGet();
+				return result;
+			}
+		}
 		Object result = new JavaRunner(task).compile().instance().execute(method, args.getArgs());
+		if (result instanceof CompletionStage) { // 缓存的是结果而不是future
+			result = ((CompletionStage<?>) result).toCompletableFuture().join();
+		}
+		if (sharedCache != null) {
+			sharedCache.put(args, result);
+		}
 		return result == null ? NULL : result;
 	}
 
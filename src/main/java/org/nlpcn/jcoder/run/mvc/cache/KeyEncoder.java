@@ -0,0 +1,342 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 将方法参数编码为紧凑的缓存key字节, 相同结构的参数得到相同的字节.
+ * map 和 set 与顺序无关, pojo 按字段名排序编码, servlet 类型参数不参与编码.
+ * 其他jdk中的类型(UUID, LocalDate, Optional, File等)不能反射私有字段, 按类名和toString编码
+ *
+ * @author ansj
+ */
+public class KeyEncoder {
+
+	private static final byte NULL = 0, SKIP = 1, TRUE = 2, FALSE = 3, BYTE = 4, SHORT = 5, CHAR = 6, INT = 7, LONG = 8, FLOAT = 9, DOUBLE = 10, STRING = 11, ENUM = 12, DATE = 13, NUMBER = 14, ARRAY = 15, LIST = 16, SET = 17, MAP = 18, POJO = 19, CYCLE = 20, CLASS = 21, JDK = 22;
+
+	private static final Class<?>[] SERVLET_TYPES = {ServletRequest.class, ServletResponse.class, HttpSession.class, ServletContext.class};
+
+	/**
+	 * pojo 的可编码字段, 按字段名排序
+	 */
+	private static final ClassValue<Field[]> FIELDS = new ClassValue<Field[]>() {
+		@Override
+		protected Field[] computeValue(Class<?> type) {
+			List<Field> list = new ArrayList<>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields()) {
+					int mod = field.getModifiers();
+					if (Modifier.isStatic(mod) || Modifier.isTransient(mod) || field.isSynthetic()) {
+						continue;
+					}
+					field.setAccessible(true);
+					list.add(field);
+				}
+			}
+			list.sort((f1, f2) -> {
+				int c = f1.getName().compareTo(f2.getName());
+				return c != 0 ? c : f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+			});
+			return list.toArray(new Field[list.size()]);
+		}
+	};
+
+	private byte[] buf;
+
+	private int len;
+
+	/**
+	 * 当前递归路径上的对象, 用于发现循环引用
+	 */
+	private IdentityHashMap<Object, Boolean> path;
+
+	KeyEncoder() {
+		this(64);
+	}
+
+	private KeyEncoder(int capacity) {
+		this.buf = new byte[capacity];
+	}
+
+	/**
+	 * 判断参数类型是否是servlet相关类型, 这类参数不参与缓存key
+	 */
+	public static boolean isServletType(Class<?> type) {
+		for (Class<?> c : SERVLET_TYPES) {
+			if (c.isAssignableFrom(type)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * jdk中的类型, 高版本jdk中不能通过setAccessible读取私有字段
+	 */
+	static boolean isJdkType(Class<?> type) {
+		String name = type.getName();
+		return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.") || name.startsWith("jdk.");
+	}
+
+	/**
+	 * 计算一个方法中不参与缓存key的参数位置
+	 *
+	 * @return 没有需要跳过的参数时返回null
+	 */
+	public static boolean[] skipMask(Method method) {
+		if (method == null) {
+			return null;
+		}
+		Class<?>[] types = method.getParameterTypes();
+		boolean[] mask = null;
+		for (int i = 0; i < types.length; i++) {
+			if (isServletType(types[i])) {
+				if (mask == null) {
+					mask = new boolean[types.length];
+				}
+				mask[i] = true;
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * 编码整个参数列表
+	 */
+	public static byte[] encode(Object[] args, boolean[] skip) {
+		if (args == null) {
+			return new byte[]{NULL};
+		}
+		KeyEncoder encoder = new KeyEncoder();
+		encoder.writeInt(args.length);
+		for (int i = 0; i < args.length; i++) {
+			if (skip != null && i < skip.length && skip[i]) {
+				encoder.write(SKIP);
+			} else {
+				encoder.value(args[i]);
+			}
+		}
+		return encoder.toBytes();
+	}
+
+	byte[] toBytes() {
+		return Arrays.copyOf(buf, len);
+	}
+
+	void value(Object obj) {
+		if (obj == null) {
+			write(NULL);
+		} else if (obj instanceof String) {
+			string(STRING, (String) obj);
+		} else if (obj instanceof Integer) {
+			write(INT);
+			writeInt((Integer) obj);
+		} else if (obj instanceof Long) {
+			write(LONG);
+			writeLong((Long) obj);
+		} else if (obj instanceof Boolean) {
+			write((Boolean) obj ? TRUE : FALSE);
+		} else if (obj instanceof Double) {
+			write(DOUBLE);
+			writeLong(Double.doubleToLongBits((Double) obj));
+		} else if (obj instanceof Float) {
+			write(FLOAT);
+			writeInt(Float.floatToIntBits((Float) obj));
+		} else if (obj instanceof Short) {
+			write(SHORT);
+			writeInt((Short) obj);
+		} else if (obj instanceof Byte) {
+			write(BYTE);
+			write((Byte) obj);
+		} else if (obj instanceof Character) {
+			write(CHAR);
+			writeInt((Character) obj);
+		} else if (obj instanceof Enum) {
+			string(ENUM, ((Enum<?>) obj).getDeclaringClass().getName());
+			writeInt(((Enum<?>) obj).ordinal());
+		} else if (obj instanceof Date) {
+			string(DATE, obj.getClass().getName());
+			writeLong(((Date) obj).getTime());
+		} else if (obj instanceof BigDecimal || obj instanceof BigInteger) {
+			string(NUMBER, obj.getClass().getName());
+			string(NUMBER, obj.toString());
+		} else if (obj instanceof CharSequence) {
+			string(STRING, obj.toString());
+		} else if (obj instanceof Class) {
+			string(CLASS, ((Class<?>) obj).getName());
+		} else if (isServletType(obj.getClass())) {
+			write(SKIP);
+		} else {
+			if (path == null) {
+				path = new IdentityHashMap<>();
+			}
+			if (path.put(obj, Boolean.TRUE) != null) {
+				write(CYCLE);
+				return;
+			}
+			try {
+				if (obj.getClass().isArray()) {
+					array(obj);
+				} else if (obj instanceof Map) {
+					map((Map<?, ?>) obj);
+				} else if (obj instanceof Set) {
+					set((Set<?>) obj);
+				} else if (obj instanceof Collection) {
+					write(LIST);
+					writeInt(((Collection<?>) obj).size());
+					for (Object o : (Collection<?>) obj) {
+						value(o);
+					}
+				} else if (isJdkType(obj.getClass())) {
+					string(JDK, obj.getClass().getName());
+					string(JDK, obj.toString());
+				} else {
+					pojo(obj);
+				}
+			} finally {
+				path.remove(obj);
+			}
+		}
+	}
+
+	private void array(Object obj) {
+		Class<?> component = obj.getClass().getComponentType();
+		int length = Array.getLength(obj);
+		string(ARRAY, component.getName());
+		writeInt(length);
+		if (component == byte.class) {
+			ensure(length);
+			System.arraycopy(obj, 0, buf, len, length);
+			len += length;
+		} else if (component.isPrimitive()) {
+			for (int i = 0; i < length; i++) {
+				value(Array.get(obj, i));
+			}
+		} else {
+			Object[] arr = (Object[]) obj;
+			for (Object o : arr) {
+				value(o);
+			}
+		}
+	}
+
+	private void set(Set<?> set) {
+		write(SET);
+		writeInt(set.size());
+		byte[][] items = new byte[set.size()][];
+		int i = 0;
+		for (Object o : set) {
+			items[i++] = sub(o, null, false);
+		}
+		appendSorted(items, i);
+	}
+
+	private void map(Map<?, ?> map) {
+		write(MAP);
+		writeInt(map.size());
+		byte[][] items = new byte[map.size()][];
+		int i = 0;
+		for (Map.Entry<?, ?> entry : map.entrySet()) {
+			items[i++] = sub(entry.getKey(), entry.getValue(), true);
+		}
+		appendSorted(items, i);
+	}
+
+	private void pojo(Object obj) {
+		Field[] fields = FIELDS.get(obj.getClass());
+		string(POJO, obj.getClass().getName());
+		writeInt(fields.length);
+		for (Field field : fields) {
+			try {
+				value(field.get(obj));
+			} catch (IllegalAccessException e) {
+				throw new IllegalArgumentException("can not read field " + field + " for cache key", e);
+			}
+		}
+	}
+
+	/**
+	 * 单独编码一个元素(或键值对), 用于顺序无关的集合排序
+	 */
+	private byte[] sub(Object key, Object value, boolean pair) {
+		KeyEncoder encoder = new KeyEncoder(32);
+		encoder.path = path;
+		encoder.value(key);
+		if (pair) {
+			encoder.value(value);
+		}
+		return encoder.toBytes();
+	}
+
+	private void appendSorted(byte[][] items, int size) {
+		Arrays.sort(items, 0, size, KeyEncoder::compare);
+		for (int i = 0; i < size; i++) {
+			writeInt(items[i].length);
+			ensure(items[i].length);
+			System.arraycopy(items[i], 0, buf, len, items[i].length);
+			len += items[i].length;
+		}
+	}
+
+	private static int compare(byte[] b1, byte[] b2) {
+		int n = Math.min(b1.length, b2.length);
+		for (int i = 0; i < n; i++) {
+			if (b1[i] != b2[i]) {
+				return (b1[i] & 0xff) - (b2[i] & 0xff);
+			}
+		}
+		return b1.length - b2.length;
+	}
+
+	private void string(byte tag, String str) {
+		int length = str.length();
+		write(tag);
+		writeInt(length);
+		ensure(length << 1);
+		for (int i = 0; i < length; i++) {
+			char c = str.charAt(i);
+			buf[len++] = (byte) (c >>> 8);
+			buf[len++] = (byte) c;
+		}
+	}
+
+	private void write(int b) {
+		ensure(1);
+		buf[len++] = (byte) b;
+	}
+
+	private void writeInt(int v) {
+		ensure(4);
+		buf[len++] = (byte) (v >>> 24);
+		buf[len++] = (byte) (v >>> 16);
+		buf[len++] = (byte) (v >>> 8);
+		buf[len++] = (byte) v;
+	}
+
+	private void writeLong(long v) {
+		writeInt((int) (v >>> 32));
+		writeInt((int) v);
+	}
+
+	private void ensure(int n) {
+		if (len + n > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length << 1, len + n));
+		}
+	}
+}
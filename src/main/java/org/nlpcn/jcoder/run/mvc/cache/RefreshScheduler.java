@@ -0,0 +1,135 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 整个节点共享的缓存后台刷新调度器.
+ * 每个group有并发刷新配额, 同一个key同时只会有一个刷新, 刷新时间会随机抖动避免同时过期的key一起回源
+ *
+ * @author ansj
+ */
+public class RefreshScheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(RefreshScheduler.class);
+
+	private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(StaticValue.CACHE_REFRESH_THREADS, StaticValue.CACHE_REFRESH_THREADS, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(1024), new ThreadFactoryBuilder().setNameFormat("jcoder-cache-refresh-%d").setDaemon(true).build());
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jcoder-cache-refresh-timer").setDaemon(true).build());
+
+	private static final ConcurrentHashMap<String, Semaphore> QUOTAS = new ConcurrentHashMap<>();
+
+	private static final ConcurrentHashMap<Object, ListenableFuture<Object>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+	static {
+		POOL.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * 提交一个刷新任务
+	 *
+	 * @param groupName 用于计算配额的组
+	 * @param key       刷新的唯一标识, 相同key同时只有一个在执行
+	 * @param oldValue  配额不足或者队列已满时直接返回旧值
+	 * @param jitter    最大随机延迟, 毫秒
+	 * @param loader    真正的加载逻辑
+	 * @return 刷新结果, 没有成功提交时返回null
+	 */
+	static ListenableFuture<Object> refresh(String groupName, Object key, Object oldValue, long jitter, Callable<Object> loader) {
+		ListenableFuture<Object> running = IN_FLIGHT.get(key);
+		if (running != null) {
+			return running;
+		}
+
+		Semaphore quota = QUOTAS.computeIfAbsent(groupName, k -> new Semaphore(StaticValue.CACHE_REFRESH_GROUP_QUOTA));
+
+		SettableFuture<Object> future = SettableFuture.create();
+		running = IN_FLIGHT.putIfAbsent(key, future);
+		if (running != null) {
+			return running;
+		}
+
+		long delay = jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0;
+
+		if (delay == 0) { //配额不足或者队列已满直接返回, 由调用方使用旧值
+			if (!quota.tryAcquire()) {
+				IN_FLIGHT.remove(key, future);
+				return null;
+			}
+			if (!execute(quota, key, future, loader)) {
+				return null;
+			}
+		} else {
+			//延迟期间不占用配额, 真正执行前才获取
+			TIMER.schedule(() -> {
+				if (!quota.tryAcquire()) {
+					IN_FLIGHT.remove(key, future);
+					future.set(oldValue);
+					return;
+				}
+				if (!execute(quota, key, future, loader)) {
+					LOG.warn("refresh queue is full, skip refresh of " + groupName);
+					future.set(oldValue);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+
+		return future;
+	}
+
+	/**
+	 * 在已经获取配额的情况下提交到刷新线程池
+	 *
+	 * @return 队列已满时释放配额并返回false
+	 */
+	private static boolean execute(Semaphore quota, Object key, SettableFuture<Object> future, Callable<Object> loader) {
+		try {
+			POOL.execute(() -> {
+				try {
+					future.set(loader.call());
+				} catch (Throwable e) {
+					future.setException(e);
+				} finally {
+					IN_FLIGHT.remove(key, future);
+					quota.release();
+				}
+			});
+			return true;
+		} catch (RejectedExecutionException e) {
+			IN_FLIGHT.remove(key, future);
+			quota.release();
+			return false;
+		}
+	}
+
+	/**
+	 * 当前排队中的刷新任务数
+	 */
+	public static int queueSize() {
+		return POOL.getQueue().size();
+	}
+
+	/**
+	 * 正在执行的刷新任务数
+	 */
+	public static int activeCount() {
+		return POOL.getActiveCount();
+	}
+
+}
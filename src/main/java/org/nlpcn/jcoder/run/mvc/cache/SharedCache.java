@@ -0,0 +1,281 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.recipes.cache.NodeCache;
+import org.apache.zookeeper.KeeperException;
+import org.nlpcn.jcoder.constant.Api;
+import org.nlpcn.jcoder.domain.HostGroup;
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.service.ProxyService;
+import org.nlpcn.jcoder.service.SharedSpaceService;
+import org.nlpcn.jcoder.util.MD5Util;
+import org.nlpcn.jcoder.util.Restful;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.nutz.http.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 集群共享的二级缓存.
+ * <p>
+ * zookeeper 中只保存版本用于失效通知: /jcoder/cache/[groupName]/[className]/[methodName] 节点数据为当前代码版本, 变化时各节点清空缓存.
+ * 值按照参数的一致性hash存放在group的一台同步主机上, 其他主机未命中时向这台主机获取, 计算后推送给这台主机.
+ * 每台主机为每个方法保存的值有总字节数上限, 超过缓存时间后过期
+ *
+ * @author ansj
+ */
+public class SharedCache implements Closeable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(SharedCache.class);
+
+	// 本节点所有的共享缓存, key 为 group/task/method
+	private static final Map<String, SharedCache> CACHES = new ConcurrentHashMap<>();
+
+	// 超过这个字节数的值不共享
+	private static final int MAX_VALUE_BYTES = 256 * 1024;
+
+	// 每个方法在一台主机上保存的值的最大字节数
+	private static final long MAX_STORE_BYTES = 16L * 1024 * 1024;
+
+	// 向其他主机获取值的超时毫秒数, 超时后本机计算
+	private static final int FETCH_TIMEOUT = 1000;
+
+	private final String name;
+
+	private final String path;
+
+	private final String version;
+
+	private final Type type;
+
+	private final String groupName;
+
+	// 一致性hash分到本机的值, key 为参数编码
+	private final Cache<ByteBuffer, byte[]> values;
+
+	private NodeCache nodeCache;
+
+	private ProxyService proxyService;
+
+	/**
+	 * @param ttl 值的过期毫秒数
+	 */
+	public SharedCache(Task task, Method method, long ttl) {
+		this.name = task.getGroupName() + "/" + task.getName() + "/" + method.getName();
+		this.path = SharedSpaceService.CACHE_PATH + "/" + name;
+		this.version = task.getVersion() != null ? task.getVersion() : MD5Util.md5(String.valueOf(task.getCode()));
+		this.type = method.getGenericReturnType();
+		this.groupName = task.getGroupName();
+		this.values = CacheBuilder.newBuilder().maximumWeight(MAX_STORE_BYTES).weigher((ByteBuffer k, byte[] v) -> k.capacity() + v.length)
+				.expireAfterWrite(ttl, TimeUnit.MILLISECONDS).build();
+	}
+
+	private CuratorFramework zk() {
+		return StaticValue.space().getZk();
+	}
+
+	/**
+	 * 发布当前版本并监听失效
+	 *
+	 * @param onInvalidate 其他节点清空缓存或者代码版本变化时回调
+	 */
+	public SharedCache start(Runnable onInvalidate) {
+		try {
+			byte[] current = getData(path);
+			if (current == null || !version.equals(new String(current))) {
+				setData(path, version.getBytes());
+			}
+			nodeCache = new NodeCache(zk(), path);
+			nodeCache.getListenable().addListener(() -> {
+				LOG.info("shared cache {} changed, clean local cache", path);
+				values.invalidateAll();
+				onInvalidate.run();
+			});
+			nodeCache.start(true);
+		} catch (Exception e) {
+			LOG.warn("start shared cache " + path + " err", e);
+		}
+		SharedCache old = CACHES.put(name, this);
+		if (old != null && old != this) {
+			old.close();
+		}
+		return this;
+	}
+
+	/**
+	 * 从共享缓存中读取
+	 *
+	 * @param ttl 超过这个毫秒数的值视为过期
+	 * @return 没有时返回null
+	 */
+	public Object get(Args args, long ttl) {
+		try {
+			String owner = owner(args);
+			byte[] bytes;
+			if (owner == null) {
+				return null;
+			} else if (owner.equals(StaticValue.getHostPort())) {
+				bytes = values.getIfPresent(ByteBuffer.wrap(args.getKey()));
+			} else {
+				bytes = fetch(owner, args);
+			}
+			if (bytes == null) {
+				return null;
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			if (!CacheCodec.match(buffer, args.getKey()) || System.currentTimeMillis() - CacheCodec.time(buffer) > ttl) {
+				return null;
+			}
+			return CacheCodec.decode(buffer, type);
+		} catch (Exception e) {
+			LOG.warn("get shared cache " + path + " err", e);
+			return null;
+		}
+	}
+
+	/**
+	 * 本机计算的结果放入值所在的主机
+	 */
+	public void put(Args args, Object value) {
+		try {
+			byte[] bytes = CacheCodec.encode(args.getKey(), value, System.currentTimeMillis());
+			if (bytes.length > MAX_VALUE_BYTES) {
+				LOG.debug("value of {} too large for shared cache : {}", path, bytes.length);
+				return;
+			}
+			String owner = owner(args);
+			if (owner == null) {
+				return;
+			} else if (owner.equals(StaticValue.getHostPort())) {
+				values.put(ByteBuffer.wrap(args.getKey()), bytes);
+			} else {
+				proxyService().postAsync(owner, Api.CACHE_PUT.getPath(), params(args, bytes), FETCH_TIMEOUT).whenComplete((r, e) -> {
+					if (e != null || !r.isOk()) {
+						LOG.debug("put shared cache {} to {} fail : {}", path, owner, e != null ? e.getMessage() : r.getMessage());
+					}
+				});
+			}
+		} catch (Exception e) {
+			LOG.warn("put shared cache " + path + " err", e);
+		}
+	}
+
+	/**
+	 * 清空当前版本的共享缓存并通知所有节点
+	 */
+	public void invalidate() {
+		values.invalidateAll();
+		try {
+			setData(path, version.getBytes());
+		} catch (Exception e) {
+			LOG.warn("invalidate shared cache " + path + " err", e);
+		}
+	}
+
+	/**
+	 * 其他主机获取分到本机的值
+	 *
+	 * @return 没有或者版本不同时返回null
+	 */
+	public static byte[] local(String name, String version, byte[] key) {
+		SharedCache cache = CACHES.get(name);
+		if (cache == null || !cache.version.equals(version)) {
+			return null;
+		}
+		return cache.values.getIfPresent(ByteBuffer.wrap(key));
+	}
+
+	/**
+	 * 其他主机推送分到本机的值
+	 *
+	 * @return 没有或者版本不同时返回false
+	 */
+	public static boolean offer(String name, String version, byte[] key, byte[] value) {
+		SharedCache cache = CACHES.get(name);
+		if (cache == null || !cache.version.equals(version) || value.length > MAX_VALUE_BYTES) {
+			return false;
+		}
+		cache.values.put(ByteBuffer.wrap(key), value);
+		return true;
+	}
+
+	/**
+	 * 参数所在的主机, 在group的同步主机中一致性hash
+	 */
+	private String owner(Args args) {
+		HostGroup hostGroup = proxyService().ring(groupName).choose(name + "/" + Hashing.murmur3_128().hashBytes(args.getKey()).toString(), 0);
+		return hostGroup == null ? null : hostGroup.getHostPort();
+	}
+
+	private byte[] fetch(String owner, Args args) throws Exception {
+		Response response = proxyService().post(owner, Api.CACHE_GET.getPath(), params(args, null), FETCH_TIMEOUT);
+		if (response.getStatus() != 200) {
+			return null;
+		}
+		Restful restful = Restful.instance(response);
+		String value = restful.isOk() ? restful.getObj() : null;
+		return value == null ? null : Base64.getDecoder().decode(value);
+	}
+
+	private Map<String, Object> params(Args args, byte[] value) {
+		ImmutableMap.Builder<String, Object> builder = ImmutableMap.<String, Object>builder().put("name", name).put("version", version)
+				.put("key", Base64.getEncoder().encodeToString(args.getKey()));
+		if (value != null) {
+			builder.put("value", Base64.getEncoder().encodeToString(value));
+		}
+		return builder.build();
+	}
+
+	private ProxyService proxyService() {
+		if (proxyService == null) {
+			proxyService = StaticValue.getSystemIoc().get(ProxyService.class, "proxyService");
+		}
+		return proxyService;
+	}
+
+	private byte[] getData(String path) throws Exception {
+		try {
+			return zk().getData().forPath(path);
+		} catch (KeeperException.NoNodeException e) {
+			return null;
+		}
+	}
+
+	private void setData(String path, byte[] data) throws Exception {
+		try {
+			zk().setData().forPath(path, data);
+		} catch (KeeperException.NoNodeException e) {
+			try {
+				zk().create().creatingParentsIfNeeded().forPath(path, data);
+			} catch (KeeperException.NodeExistsException e1) {
+				zk().setData().forPath(path, data);
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		CACHES.remove(name, this);
+		values.invalidateAll();
+		if (nodeCache != null) {
+			try {
+				nodeCache.close();
+			} catch (Exception e) {
+				LOG.warn("close shared cache " + path + " err", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package org.nlpcn.jcoder.run.mvc.limit;
+
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.run.annotation.Limit;
+import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.util.ApiException;
+import org.nlpcn.jcoder.util.StaticValue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * api或group的并发隔离, 超过并发数的请求在有界队列中等待, 队列满返回429, 等待超时返回503, 请求的截止时间先到期返回504.
+ * 自适应模式下按AIMD根据响应时间在1和最大并发数之间调整上限, 只有变慢, 超时和被拒绝认为过载, 业务异常不影响上限
+ *
+ * @author ansj
+ */
+public class Limiter {
+
+	// 本节点所有的限流器, key 为 group 或 group/task/method
+	private static final Map<String, Limiter> LIMITERS = new ConcurrentHashMap<>();
+
+	// 统计最小响应时间的采样数
+	private static final int WINDOW = 100;
+
+	// 响应时间超过最小响应时间的倍数时认为过载
+	private static final double TOLERANCE = 2;
+
+	// 过载时的缩减比例
+	private static final double BACKOFF = 0.9;
+
+	private final String name;
+
+	private final int max;
+
+	private final int maxQueue;
+
+	private final long timeout;
+
+	private final boolean adaptive;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final AtomicInteger queued = new AtomicInteger();
+
+	private final AtomicLong passed = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	// 当前并发上限, 非自适应时等于max
+	private volatile double limit;
+
+	// 上一个窗口的最小响应时间, 纳秒
+	private long baseline = Long.MAX_VALUE;
+
+	private long windowMin = Long.MAX_VALUE;
+
+	private int windowCount;
+
+	public Limiter(String name, int max, int maxQueue, long timeout, boolean adaptive) {
+		this.name = name;
+		this.max = max;
+		this.maxQueue = Math.max(0, maxQueue);
+		this.timeout = Math.max(0, timeout);
+		this.adaptive = adaptive;
+		this.limit = max;
+	}
+
+	/**
+	 * 获得一个api的限流器, 方法上的@Limit优先于类上的, 没有配置时返回null
+	 */
+	public static Limiter api(Task task, Method method) {
+		Limit conf = method.getAnnotation(Limit.class);
+		if (conf == null) {
+			conf = method.getDeclaringClass().getAnnotation(Limit.class);
+		}
+		if (conf == null || conf.value() <= 0) {
+			return null;
+		}
+		String key = task.getGroupName() + "/" + task.getName() + "/" + method.getName();
+		Limiter limiter = new Limiter(key, conf.value(), conf.queue(), conf.timeout(), conf.adaptive());
+		LIMITERS.put(key, limiter);
+		return limiter;
+	}
+
+	/**
+	 * 获得group的限流器, 没有配置group_max_concurrency时返回null
+	 */
+	public static Limiter group(String groupName) {
+		if (StaticValue.GROUP_MAX_CONCURRENCY <= 0 || groupName == null) {
+			return null;
+		}
+		return LIMITERS.computeIfAbsent(groupName, k -> new Limiter(k, StaticValue.GROUP_MAX_CONCURRENCY, StaticValue.GROUP_MAX_QUEUE, StaticValue.LIMIT_QUEUE_TIMEOUT, false));
+	}
+
+	/**
+	 * 依次占用group和api的并发, 被拒绝时抛出429或503
+	 *
+	 * @param api 为null时只限制group
+	 */
+	public static Permit acquire(String groupName, Limiter api) throws ApiException {
+		Deadline deadline = Rpcs.ctx().getDeadline();
+		Limiter group = group(groupName);
+		if (group != null) {
+			group.acquire(deadline);
+		}
+		if (api != null) {
+			try {
+				api.acquire(deadline);
+			} catch (ApiException e) {
+				if (group != null) {
+					group.release(0, false, false);
+				}
+				throw e;
+			}
+		}
+		return new Permit(group, api);
+	}
+
+	/**
+	 * 移除一个task的所有限流器统计, task重新加载时调用
+	 */
+	public static void remove(String groupName, String taskName) {
+		String prefix = groupName + "/" + taskName + "/";
+		LIMITERS.keySet().removeIf(k -> k.startsWith(prefix));
+	}
+
+	/**
+	 * 获得本节点限流器的统计信息
+	 *
+	 * @param groupName 为空时返回全部
+	 */
+	public static List<Map<String, Object>> allStats(String groupName) {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (Limiter limiter : LIMITERS.values()) {
+			if (groupName == null || groupName.length() == 0 || limiter.name.equals(groupName) || limiter.name.startsWith(groupName + "/")) {
+				result.add(limiter.stats());
+			}
+		}
+		return result;
+	}
+
+	private boolean tryAcquire() {
+		for (; ; ) {
+			int current = inFlight.get();
+			if (current >= (int) limit) {
+				return false;
+			}
+			if (inFlight.compareAndSet(current, current + 1)) {
+				passed.incrementAndGet();
+				return true;
+			}
+		}
+	}
+
+	void acquire() throws ApiException {
+		acquire(Deadline.unbounded());
+	}
+
+	/**
+	 * @param deadline 请求的截止时间, 在队列中等待不超过剩余的时间, 先到期时返回504
+	 */
+	void acquire(Deadline deadline) throws ApiException {
+		if (tryAcquire()) {
+			return;
+		}
+
+		if (queued.incrementAndGet() > maxQueue) {
+			queued.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new ApiException(ApiException.TooManyRequests, name + " too many requests, in flight " + inFlight.get());
+		}
+
+		try {
+			long wait = Math.min(timeout, deadline.remaining());
+			long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(wait);
+			synchronized (this) {
+				while (!tryAcquire()) {
+					long remaining = end - System.nanoTime();
+					if (remaining <= 0) {
+						if (wait < timeout) { //请求的截止时间先到期, 不算限流器的超时
+							deadline.check();
+							throw new ApiException(ApiException.GatewayTimeout, name + " request deadline exceeded in queue");
+						}
+						timeouts.incrementAndGet();
+						throw new ApiException(ApiException.ServiceUnavailable, name + " wait timeout in queue " + timeout + "ms");
+					}
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ApiException(ApiException.ServiceUnavailable, name + " interrupted in queue");
+		} finally {
+			queued.decrementAndGet();
+		}
+	}
+
+	/**
+	 * 异常是否代表过载, 超时和线程池拒绝算过载, 参数错误, 业务异常和调用方的截止时间到期不算
+	 */
+	static boolean overload(Throwable e) {
+		while ((e instanceof CompletionException || e instanceof ExecutionException || e instanceof InvocationTargetException) && e.getCause() != null) {
+			e = e.getCause();
+		}
+		return e instanceof TimeoutException || e instanceof RejectedExecutionException;
+	}
+
+	void release(long rtt, boolean overload) {
+		release(rtt, overload, true);
+	}
+
+	/**
+	 * 释放并发并唤醒一个等待者
+	 *
+	 * @param rtt      本次调用的纳秒数
+	 * @param overload 是否过载, 自适应模式下减少上限
+	 * @param sample   响应时间是否计入统计, 出错的调用不计入
+	 */
+	void release(long rtt, boolean overload, boolean sample) {
+		int before = inFlight.getAndDecrement();
+		if (adaptive && (overload || sample) && adjust(rtt, overload, before)) {
+			synchronized (this) {
+				notifyAll();
+			}
+		} else if (queued.get() > 0) {
+			synchronized (this) {
+				notify();
+			}
+		}
+	}
+
+	/**
+	 * AIMD, 过载时乘性减少, 并发打满且响应正常时加性增加
+	 *
+	 * @return 上限是否增加
+	 */
+	private synchronized boolean adjust(long rtt, boolean overload, int inFlight) {
+		if (!overload) {
+			windowMin = Math.min(windowMin, rtt);
+			if (++windowCount >= WINDOW) {
+				baseline = windowMin;
+				windowMin = Long.MAX_VALUE;
+				windowCount = 0;
+			} else if (baseline == Long.MAX_VALUE) {
+				baseline = windowMin;
+			}
+		}
+
+		double old = limit;
+		if (overload || rtt > baseline * TOLERANCE) {
+			limit = Math.max(1, old * BACKOFF);
+		} else if (inFlight >= (int) old) {
+			limit = Math.min(max, old + 1 / old);
+		}
+		return (int) limit > (int) old;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("name", name);
+		map.put("max", max);
+		map.put("limit", (int) limit);
+		map.put("adaptive", adaptive);
+		map.put("inFlight", inFlight.get());
+		map.put("queued", queued.get());
+		map.put("maxQueue", maxQueue);
+		map.put("passed", passed.get());
+		map.put("rejected", rejected.get());
+		map.put("timeouts", timeouts.get());
+		return map;
+	}
+
+	public int getLimit() {
+		return (int) limit;
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public int getQueued() {
+		return queued.get();
+	}
+
+	/**
+	 * 一次调用占用的并发, 调用结束或者异步结果完成时释放
+	 */
+	public static class Permit {
+
+		private final Limiter group;
+
+		private final Limiter api;
+
+		private final long start = System.nanoTime();
+
+		Permit(Limiter group, Limiter api) {
+			this.group = group;
+			this.api = api;
+		}
+
+		/**
+		 * @param error 调用的异常, 成功时为null
+		 */
+		public void release(Throwable error) {
+			long rtt = System.nanoTime() - start;
+			boolean overload = error != null && overload(error);
+			if (api != null) {
+				api.release(rtt, overload, error == null);
+			}
+			if (group != null) {
+				group.release(rtt, overload, error == null);
+			}
+		}
+	}
+}
@@ -1,7 +1,5 @@
 package org.nlpcn.jcoder.run.mvc.processor;
 
-import org.nutz.log.Log;
-import org.nutz.log.Logs;
 import org.nutz.mvc.*;
 import org.nutz.mvc.impl.processor.AbstractProcessor;
 
@@ -15,8 +13,6 @@ import java.util.List;
  */
 public class ApiActionFiltersProcessor extends AbstractProcessor {
 
-	private static final Log log = Logs.get();
-
 	protected List<ActionFilter> filters = new ArrayList<ActionFilter>();
 
 	protected Processor proxyProcessor;
@@ -45,17 +41,13 @@ public class ApiActionFiltersProcessor extends AbstractProcessor {
 
 	public void process(ActionContext ac) throws Throwable {
 
-		if (ac.getRequest().getParameter("_rpc_init") == null) { //如果是null说明是调用激活此时放过
-			for (ActionFilter filter : filters) {
-				View view = filter.match(ac);
-				if (null != view) {
-					ac.setMethodReturn(view);
-					renderView(ac);
-					return;
-				}
+		for (ActionFilter filter : filters) {
+			View view = filter.match(ac);
+			if (null != view) {
+				ac.setMethodReturn(view);
+				renderView(ac);
+				return;
 			}
-		} else {
-			log.info("to instance by init " + ac.getPath());
 		}
 
 		if (proxyProcessor == null) {
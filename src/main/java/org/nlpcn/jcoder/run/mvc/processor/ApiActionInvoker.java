@@ -1,5 +1,6 @@
 package org.nlpcn.jcoder.run.mvc.processor;
 
+import org.nlpcn.jcoder.run.mvc.ApiRoute;
 import org.nlpcn.jcoder.run.mvc.JcoderActionChain;
 import org.nutz.log.Log;
 import org.nutz.log.Logs;
@@ -12,9 +13,19 @@ public class ApiActionInvoker {
 
 	private ActionChain defaultChain;
 
+	private ApiRoute route;
+
 	public ApiActionInvoker() {
 	}
 
+	public ApiActionInvoker(ApiRoute route) {
+		this.route = route;
+	}
+
+	public ApiRoute getRoute() {
+		return route;
+	}
+
 	public void setDefaultChain(ActionChain defaultChain) {
 		this.defaultChain = defaultChain;
 	}
@@ -4,29 +4,55 @@ import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.run.annotation.Cache;
 import org.nlpcn.jcoder.run.java.JavaRunner;
 import org.nlpcn.jcoder.run.mvc.cache.CacheEntry;
+import org.nlpcn.jcoder.run.mvc.limit.Limiter;
+import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.run.rpc.domain.RpcContext;
 import org.nlpcn.jcoder.scheduler.TaskRunManager;
+import org.nlpcn.jcoder.util.ApiException;
 import org.nlpcn.jcoder.util.DateUtils;
 import org.nlpcn.jcoder.util.Restful;
 import org.nutz.lang.Lang;
 import org.nutz.mvc.ActionContext;
 import org.nutz.mvc.ActionInfo;
+import org.nutz.mvc.Mvcs;
 import org.nutz.mvc.NutConfig;
+import org.nutz.mvc.Processor;
 import org.nutz.mvc.impl.processor.AbstractProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ApiMethodInvokeProcessor extends AbstractProcessor {
 
+	private static final Logger LOG = LoggerFactory.getLogger(ApiMethodInvokeProcessor.class);
+
 	private AtomicLong al = new AtomicLong();
 
 	private Cache cache;
 
 	private CacheEntry cacheEntry;
 
+	private Processor errorProcessor;
+
+	private volatile boolean limiterInit;
+
+	private Limiter limiter;
+
 	@Override
 	public void init(NutConfig config, ActionInfo ai) throws Throwable {
 		super.init(config, ai);
@@ -37,17 +63,14 @@ public class ApiMethodInvokeProcessor extends AbstractProcessor {
 
 		if (ac.getRequest().getParameter("_clean_cache") != null) {
 			ac.setMethodReturn(Restful.ok());
+			if (cacheEntry != null) {
+				cacheEntry.clear();
+			}
 			cacheEntry = null;
 			doNext(ac);
 			return;
 		}
 
-		if (ac.getRequest().getParameter("_rpc_init") != null) {
-			ac.setMethodReturn(Restful.instance().msg("rpc init ok"));
-			doNext(ac);
-			return;
-		}
-
 		String threadName = null;
 		Task module = (Task) ac.getModule();
 		Method method = ac.getMethod();
@@ -60,8 +83,28 @@ public class ApiMethodInvokeProcessor extends AbstractProcessor {
 		try {
 			threadName = module.getGroupName() + "@" + module.getName() + "@" + method.getName() + "@" + ac.getRequest().getRemoteAddr() + "@" + DateUtils.formatDate(new Date(), "yyyyMMddHHmmss") + "@"
 					+ al.getAndIncrement();
-			TaskRunManager.put(threadName, Thread.currentThread());
-			Object result = executeByCache(module, method, args);
+			Deadline deadline = Rpcs.ctx().getDeadline();
+			TaskRunManager.put(threadName, Thread.currentThread(), deadline);
+			Limiter.Permit permit = acquire(module, method);
+			Object result;
+			try {
+				deadline.check(); //排队后已经超时的请求不再执行
+				result = executeByCache(module, method, args);
+			} catch (Throwable e) {
+				permit.release(e);
+				throw e;
+			}
+			if (!(result instanceof CompletionStage)) {
+				permit.release(null);
+			} else {
+				CompletableFuture<?> future = ((CompletionStage<?>) result).toCompletableFuture();
+				future.whenComplete((r, e) -> permit.release(e)); // 异步结果完成后才释放并发
+				if (!future.isDone() && ac.getRequest().isAsyncSupported()) { // 释放容器线程, 完成后再渲染
+					async(ac, future);
+					return;
+				}
+				result = await(future);
+			}
 			ac.setMethodReturn(result);
 			doNext(ac);
 		} catch (IllegalAccessException e) {
@@ -75,6 +118,136 @@ public class ApiMethodInvokeProcessor extends AbstractProcessor {
 		}
 	}
 
+	/**
+	 * 进入servlet异步模式, future完成后在完成的线程中继续执行后面的view处理器.
+	 * 请求有截止时间时到期返回504并取消deadline, 之后完成的结果被丢弃
+	 */
+	private void async(ActionContext ac, CompletionStage<?> stage) {
+		HttpServletRequest req = ac.getRequest();
+		HttpServletResponse resp = ac.getResponse();
+		String name = Mvcs.getName();
+		RpcContext rpcContext = Rpcs.ctx();
+		Deadline deadline = rpcContext.getDeadline();
+		AtomicBoolean done = new AtomicBoolean();
+		ApiProxyProcessor.LocalStats stats = ApiProxyProcessor.LocalStats.of(ac);
+
+		AsyncContext async = req.startAsync(req, resp);
+		if (stats != null) { //本机的延迟和成功失败在完成时记录
+			stats.defer();
+		}
+
+		if (deadline.isBounded()) {
+			async.setTimeout(Math.max(1, deadline.remaining()));
+			async.addListener(new AsyncListener() {
+				@Override
+				public void onTimeout(AsyncEvent event) {
+					deadline.cancel();
+					if (stats != null) {
+						stats.end(false);
+					}
+					finish(ac, async, done, name, rpcContext, () -> fail(ac, new ApiException(ApiException.GatewayTimeout, "request deadline exceeded")));
+				}
+
+				@Override
+				public void onComplete(AsyncEvent event) {
+				}
+
+				@Override
+				public void onError(AsyncEvent event) {
+				}
+
+				@Override
+				public void onStartAsync(AsyncEvent event) {
+				}
+			});
+		} else {
+			async.setTimeout(0); // 和同步调用一致, 不设置超时
+		}
+
+		stage.whenComplete((result, e) -> {
+			if (stats != null) {
+				stats.end(e == null);
+			}
+		});
+		stage.whenComplete((result, e) -> finish(ac, async, done, name, rpcContext, () -> {
+			if (e == null) {
+				ac.setMethodReturn(result);
+				try {
+					doNext(ac);
+				} catch (Throwable t) {
+					fail(ac, t);
+				}
+			} else {
+				fail(ac, e);
+			}
+		}));
+	}
+
+	/**
+	 * 在回调线程中恢复这个请求自己的上下文渲染结果, 完成和超时只有先到的一个生效.
+	 * 回调线程可能正在处理其他请求, 结束后还原它原来的上下文
+	 */
+	private void finish(ActionContext ac, AsyncContext async, AtomicBoolean done, String name, RpcContext rpcContext, Runnable render) {
+		if (!done.compareAndSet(false, true)) {
+			return;
+		}
+		String oldName = Mvcs.getName();
+		HttpServletRequest oldReq = Mvcs.getReq();
+		HttpServletResponse oldResp = Mvcs.getResp();
+		RpcContext oldRpcContext = Rpcs.current();
+		Mvcs.set(name, ac.getRequest(), ac.getResponse());
+		Rpcs.set(rpcContext);
+		try {
+			render.run();
+		} finally {
+			Rpcs.set(oldRpcContext);
+			Mvcs.set(oldName, oldReq, oldResp);
+			async.complete();
+		}
+	}
+
+	private void fail(ActionContext ac, Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		ac.setError(e);
+		try {
+			errorProcessor.process(ac);
+		} catch (Throwable ee) {
+			LOG.error("render async err", ee);
+		}
+	}
+
+	/**
+	 * 不支持异步的请求, 阻塞等待结果
+	 */
+	private Object await(CompletionStage<?> stage) throws Throwable {
+		try {
+			return stage.toCompletableFuture().join();
+		} catch (CompletionException e) {
+			throw e.getCause() == null ? e : e.getCause();
+		}
+	}
+
+	public void setErrorProcessor(Processor errorProcessor) {
+		this.errorProcessor = errorProcessor;
+	}
+
+	/**
+	 * 占用group和api的并发, 执行结束后必须释放, rpc框架也调用这个
+	 */
+	public Limiter.Permit acquire(Task task, Method method) throws ApiException {
+		if (!limiterInit) {
+			synchronized (this) {
+				if (!limiterInit) {
+					limiter = Limiter.api(task, method);
+					limiterInit = true;
+				}
+			}
+		}
+		return Limiter.acquire(task.getGroupName(), limiter);
+	}
+
 	/**
 	 * 执行一个task,利用缓存,rpc框架也调用这个
 	 *
@@ -101,7 +274,7 @@ public class ApiMethodInvokeProcessor extends AbstractProcessor {
 		if (cacheEntry == null) {
 			synchronized (al) {
 				if (cacheEntry == null) {
-					cacheEntry = new CacheEntry(module, method, cache.time(), cache.size(), cache.block());
+					cacheEntry = new CacheEntry(module, method, cache);
 				}
 			}
 		}
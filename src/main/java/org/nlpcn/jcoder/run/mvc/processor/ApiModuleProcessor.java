@@ -2,6 +2,7 @@ package org.nlpcn.jcoder.run.mvc.processor;
 
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.run.java.JavaRunner;
+import org.nlpcn.jcoder.run.mvc.ApiRoute;
 import org.nlpcn.jcoder.run.rpc.Rpcs;
 import org.nlpcn.jcoder.service.TaskService;
 import org.nutz.mvc.ActionContext;
@@ -27,8 +28,11 @@ public class ApiModuleProcessor extends AbstractProcessor {
 	@Override
 	public void init(NutConfig config, ActionInfo ai) throws Throwable {
 		String path = ai.getPaths()[0];
-		String[] split = path.split("/");
-		Task task = TaskService.findTaskByCache(split[2], split[3]);
+		ApiRoute route = ApiRoute.parse(path);
+		if (route == null) {
+			throw new RuntimeException(path + " not match any class it must /api/[groupName]/[className]/[methodName]");
+		}
+		Task task = TaskService.findTaskByCache(route.getGroupName(), route.getClassName());
 		method = ai.getMethod();
 		moduleObj = new JavaRunner(task).compile().instance().getTask();
 		groupName = task.getGroupName();
@@ -1,8 +1,13 @@
 package org.nlpcn.jcoder.run.mvc.processor;
 
 import org.nlpcn.jcoder.constant.Constants;
+import org.nlpcn.jcoder.run.annotation.Affinity;
+import org.nlpcn.jcoder.run.mvc.ApiRoute;
 import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.run.rpc.domain.RpcContext;
 import org.nlpcn.jcoder.service.ProxyService;
+import org.nlpcn.jcoder.service.balance.TargetStats;
 import org.nlpcn.jcoder.util.StaticValue;
 import org.nlpcn.jcoder.util.StringUtil;
 import org.nutz.log.Log;
@@ -14,6 +19,7 @@ import org.nutz.mvc.impl.processor.ViewProcessor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * 代理类
@@ -26,33 +32,140 @@ public class ApiProxyProcessor extends ViewProcessor {
 	private ProxyService proxyService;
 
 
+	private Affinity affinity;
+
+	private ApiRoute route;
+
 	public void init(NutConfig config, ActionInfo ai) throws Throwable {
 		proxyService = StaticValue.getSystemIoc().get(ProxyService.class, "proxyService");
+		affinity = ai.getMethod() == null ? null : ai.getMethod().getAnnotation(Affinity.class);
+		route = ApiRoute.parse(ai.getPaths()[0]);
 	}
 
 	public void process(ActionContext ac) throws Throwable {
+		Rpcs.set(new RpcContext()); //每个请求使用新的上下文, 异步渲染时不会被同一线程的下一个请求覆盖
 		Rpcs.ctx().setTook(System.currentTimeMillis()); //设置请求时间
 
 		HttpServletRequest request = ac.getRequest();
 		HttpServletResponse response = ac.getResponse();
+
+		Deadline deadline = Deadline.parse(request.getHeader(Constants.DEADLINE_HEADER));
+		Rpcs.ctx().setDeadline(deadline);
+		deadline.check(); //上一跳已经超时的请求不再处理和转发
 		if (StaticValue.IS_LOCAL || request.getHeader(Constants.PROXY_HEADER) != null) { //head中包含则条过
-			doNext(ac);
+			local(ac);
 			return;
 		}
-		String hostPort = proxyService.host(ac.getPath());
+		ApiRoute route = this.route == null ? ApiRoute.of(ac) : this.route;
+
+		String hostPort;
+		if (route == null) {
+			hostPort = affinity == null ? proxyService.host(ac.getPath()) : proxyService.host(ac.getPath(), affinityKey(request), affinity.load());
+		} else {
+			hostPort = affinity == null ? proxyService.host(route.getGroupName(), route.getClassName(), route.getMethodName()) : proxyService.host(route.getGroupName(), route.getClassName(), route.getMethodName(), affinityKey(request), affinity.load());
+		}
 
 		if (StringUtil.isNotBlank(hostPort)) {
 			if (StaticValue.getHostPort().equals(hostPort)) {
-				doNext(ac);
+				local(ac);
 			} else {
-				proxyService.service(request, response, hostPort);
-				response.getOutputStream().flush();
-				response.getOutputStream().close();
+				if (request.isAsyncSupported()) { //异步转发,由httpclient回调完成请求
+					proxyService.serviceAsync(request, response, hostPort);
+				} else {
+					proxyService.service(request, response, hostPort);
+					response.getOutputStream().flush();
+					response.getOutputStream().close();
+				}
 			}
 		} else {
 			log.debug("not found any host in proxy so do next by self");
+			local(ac);
+		}
+
+	}
+
+	/**
+	 * 从query string中取得一致性hash的key, 不读取请求体以免影响代理转发
+	 */
+	private String affinityKey(HttpServletRequest request) {
+		String query = request.getQueryString();
+		if (query == null) {
+			query = "";
+		}
+		String[] names = affinity.value();
+		if (names.length == 0) {
+			return query;
+		}
+		String[] values = new String[names.length];
+		for (String pair : query.split("&")) {
+			int index = pair.indexOf('=');
+			String name = index > -1 ? pair.substring(0, index) : pair;
+			for (int i = 0; i < names.length; i++) {
+				if (names[i].equals(name)) {
+					values[i] = values[i] == null ? pair : values[i] + "&" + pair;
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			sb.append(value).append('\u0001');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * 在本机执行, 同时记录本机的请求统计供负载均衡使用, 异步执行的api在结果完成时记录
+	 */
+	private void local(ActionContext ac) throws Throwable {
+		LocalStats stats = new LocalStats(TargetStats.of(StaticValue.getHostPort()));
+		ac.set(LocalStats.class.getName(), stats);
+		boolean ok = false;
+		try {
 			doNext(ac);
+			ok = true;
+		} finally {
+			if (!stats.deferred) {
+				stats.end(ok);
+			}
+		}
+	}
+
+	/**
+	 * 本机一次请求的统计, 只结束一次
+	 */
+	static class LocalStats {
+
+		private final TargetStats stats;
+
+		private final long start;
+
+		private final AtomicBoolean ended = new AtomicBoolean();
+
+		private volatile boolean deferred;
+
+		private LocalStats(TargetStats stats) {
+			this.stats = stats;
+			this.start = stats.start();
+		}
+
+		/**
+		 * 当前请求的统计, 不是本机执行时返回null
+		 */
+		static LocalStats of(ActionContext ac) {
+			return (LocalStats) ac.get(LocalStats.class.getName());
 		}
 
+		/**
+		 * 进入异步模式, 由异步完成时结束
+		 */
+		void defer() {
+			deferred = true;
+		}
+
+		void end(boolean ok) {
+			if (ended.compareAndSet(false, true)) {
+				stats.end(start, ok);
+			}
+		}
 	}
 }
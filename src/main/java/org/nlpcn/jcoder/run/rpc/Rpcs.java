@@ -36,6 +36,24 @@ public class Rpcs {
 		return context;
 	}
 
+	/**
+	 * 当前线程的上下文, 没有时返回null, 不会新建
+	 */
+	public static RpcContext current() {
+		return RPC_CONTEXT.get();
+	}
+
+	/**
+	 * 设置当前线程的上下文, 异步完成的请求在回调线程中恢复上下文, 为null时清除
+	 */
+	public static void set(RpcContext context) {
+		if (context == null) {
+			RPC_CONTEXT.remove();
+		} else {
+			RPC_CONTEXT.set(context);
+		}
+	}
+
 	public Object getContext(Object key) {
 		return ctx().get(key);
 	}
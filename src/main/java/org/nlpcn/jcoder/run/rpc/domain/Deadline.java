@@ -0,0 +1,106 @@
+package org.nlpcn.jcoder.run.rpc.domain;
+
+import org.nlpcn.jcoder.util.ApiException;
+import org.nlpcn.jcoder.util.StringUtil;
+
+/**
+ * 请求的截止时间和取消标记, 由调用方通过 X-Jcoder-Deadline 头或者rpc的timeout传入剩余的毫秒数.
+ * task中可以通过 Rpcs.ctx().getDeadline() 取得, 长时间的计算应该定期调用 check() 或 isCancelled() 主动结束,
+ * 异步执行时需要在提交前取得它
+ *
+ * @author ansj
+ */
+public class Deadline {
+
+	// 截止的时间戳, Long.MAX_VALUE 为不限制
+	private final long deadline;
+
+	private volatile boolean cancelled;
+
+	private Deadline(long deadline) {
+		this.deadline = deadline;
+	}
+
+	/**
+	 * 不限制时间, 但是可以被取消
+	 */
+	public static Deadline unbounded() {
+		return new Deadline(Long.MAX_VALUE);
+	}
+
+	/**
+	 * @param timeout 剩余毫秒数, 小于等于0时不限制
+	 */
+	public static Deadline after(long timeout) {
+		if (timeout <= 0) {
+			return unbounded();
+		}
+		return new Deadline(System.currentTimeMillis() + timeout);
+	}
+
+	/**
+	 * 解析请求头中的剩余毫秒数, 为空或者格式错误时不限制
+	 */
+	public static Deadline parse(String header) {
+		if (StringUtil.isBlank(header)) {
+			return unbounded();
+		}
+		try {
+			long timeout = Long.parseLong(header.trim());
+			if (timeout <= 0) { // 上一跳已经用完了时间
+				return new Deadline(System.currentTimeMillis());
+			}
+			return after(timeout);
+		} catch (NumberFormatException e) {
+			return unbounded();
+		}
+	}
+
+	public boolean isBounded() {
+		return deadline != Long.MAX_VALUE;
+	}
+
+	/**
+	 * 剩余的毫秒数, 不限制时返回 Long.MAX_VALUE
+	 */
+	public long remaining() {
+		if (!isBounded()) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, deadline - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return isBounded() && System.currentTimeMillis() >= deadline;
+	}
+
+	/**
+	 * 通知task停止执行, 由task自己检查
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled || isExpired();
+	}
+
+	/**
+	 * 已经超时返回504, 被取消返回503
+	 */
+	public void check() throws ApiException {
+		if (cancelled) {
+			throw new ApiException(ApiException.ServiceUnavailable, "request cancelled");
+		}
+		if (isExpired()) {
+			throw new ApiException(ApiException.GatewayTimeout, "request deadline exceeded");
+		}
+	}
+
+	/**
+	 * 转发给下一跳的请求头的值
+	 */
+	public String toHeader() {
+		return String.valueOf(remaining());
+	}
+}
@@ -28,6 +28,8 @@ public class RpcContext {
 	 */
 	private long took;
 
+	private Deadline deadline;
+
 
 	public void put(Object key, Object value) {
 		if (map == null) {
@@ -59,6 +61,20 @@ public class RpcContext {
 		this.took = took;
 	}
 
+	/**
+	 * 当前请求的截止时间和取消标记
+	 */
+	public Deadline getDeadline() {
+		if (deadline == null) {
+			deadline = Deadline.unbounded();
+		}
+		return deadline;
+	}
+
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
 	public Session getSession() {
 		return session;
 	}
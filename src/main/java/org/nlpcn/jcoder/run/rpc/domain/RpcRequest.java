@@ -15,6 +15,7 @@ public class RpcRequest implements Serializable {
 	private String tokenStr;
 	private boolean debug;
 	private JSON arguments;
+	private long timeout; // 剩余的毫秒数, 0为不限制
 
 	public RpcRequest() {
 	}
@@ -67,6 +68,14 @@ public class RpcRequest implements Serializable {
 		this.groupName = groupName;
 	}
 
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
 	public boolean isDebug() {
 		return debug;
 	}
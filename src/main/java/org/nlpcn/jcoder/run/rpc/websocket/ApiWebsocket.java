@@ -6,10 +6,12 @@ import com.alibaba.fastjson.JSONObject;
 import org.nlpcn.jcoder.domain.CodeInfo;
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.run.java.JavaRunner;
+import org.nlpcn.jcoder.run.mvc.limit.Limiter;
 import org.nlpcn.jcoder.run.mvc.processor.ApiActionInvoker;
 import org.nlpcn.jcoder.run.mvc.processor.ApiMethodInvokeProcessor;
 import org.nlpcn.jcoder.run.rpc.RpcFilter;
 import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
 import org.nlpcn.jcoder.run.rpc.domain.RpcContext;
 import org.nlpcn.jcoder.run.rpc.domain.RpcRequest;
 import org.nlpcn.jcoder.run.rpc.domain.RpcResponse;
@@ -31,6 +33,9 @@ import javax.websocket.*;
 import javax.websocket.server.ServerEndpoint;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 @ServerEndpoint(value = "/api", configurator = JcoderConfigurator.class)
 @IocBean
@@ -69,7 +74,7 @@ public class ApiWebsocket extends Endpoint {
 			String threadName = request.getGroupName() + "@" + request.getClassName() + "@" + request.getMethodName() + "@RPC" + request.getMessageId() + "@" + DateUtils.formatDate(new Date(), "yyyyMMddHHmmss");
 			try {
 				try {
-					TaskRunManager.put(threadName,Thread.currentThread());
+					TaskRunManager.put(threadName, Thread.currentThread(), Rpcs.ctx().getDeadline());
 					executeTask(request);
 				} catch (Exception e) {
 					LOG.error(e.getMessage(), e);
@@ -88,7 +93,7 @@ public class ApiWebsocket extends Endpoint {
 
 
 	/**
-	 * 具体的执行一个task
+	 * 具体的执行一个task, 返回CompletionStage的方法在完成后再回复
 	 */
 	private void executeTask(RpcRequest request) {
 
@@ -128,24 +133,76 @@ public class ApiWebsocket extends Endpoint {
 					params = new Object[0];
 				}
 
-				Object result = invokeProcessor.executeByCache(task, method.getMethod(), params);
-				if (result instanceof Restful) {
-					restful = (Restful) result;
+				Limiter.Permit permit = invokeProcessor.acquire(task, method.getMethod());
+				Object result;
+				try {
+					Rpcs.ctx().getDeadline().check(); //排队后已经超时的请求不再执行
+					result = invokeProcessor.executeByCache(task, method.getMethod(), params);
+				} catch (Throwable e) {
+					permit.release(e);
+					throw e;
+				}
+
+				if (!(result instanceof CompletionStage)) {
+					permit.release(null);
 				} else {
-					restful.setObj(result);
+					CompletableFuture<?> future = ((CompletionStage<?>) result).toCompletableFuture();
+					future.whenComplete((r, e) -> permit.release(e));
+					if (!future.isDone()) { // 不占用websocket的线程, 完成后在回调线程中回复
+						RpcContext rpcContext = Rpcs.ctx();
+						future.whenComplete((r, e) -> {
+							RpcContext old = Rpcs.current(); //回调线程原来的上下文
+							Rpcs.set(rpcContext);
+							try {
+								reply(e == null ? restful(r) : fail(new Restful(), e));
+							} finally {
+								Rpcs.set(old);
+							}
+						});
+						return;
+					}
+					try {
+						result = future.join();
+					} catch (CompletionException e) {
+						throw e.getCause() == null ? e : e.getCause();
+					}
 				}
+
+				restful = restful(result);
 			} else {
 				restful.setOk(false);
 				restful.setMessage("server err : request " + request.getClassName() + "/" + request.getMethodName() + " not a rpc api");
 			}
 		} catch (Throwable e) {
-			e.printStackTrace();
-			LOG.error(e.getMessage(), e);
-			restful.setOk(false);
-			restful.setMessage("server err :" + e.getMessage());
+			fail(restful, e);
 		}
 
+		reply(restful);
+	}
+
+	private Restful restful(Object result) {
+		if (result instanceof Restful) {
+			return (Restful) result;
+		}
+		Restful restful = new Restful();
+		restful.setObj(result);
+		return restful;
+	}
+
+	private Restful fail(Restful restful, Throwable e) {
+		if (e instanceof CompletionException && e.getCause() != null) {
+			e = e.getCause();
+		}
+		LOG.error(e.getMessage(), e);
+		restful.setOk(false);
+		restful.setMessage("server err :" + e.getMessage());
+		if (e instanceof ApiException) {
+			restful.code(((ApiException) e).getStatus());
+		}
+		return restful;
+	}
 
+	private void reply(Restful restful) {
 		if (Rpcs.getReq().isDebug()) {
 			restful.debug();
 		}
@@ -154,13 +211,15 @@ public class ApiWebsocket extends Endpoint {
 	}
 
 	/**
-	 * 收集一些必要的信息
+	 * 收集一些必要的信息, 每个消息使用新的上下文, 异步回复时不会被同一线程的下一个消息覆盖
 	 */
 	private RpcRequest context(String message, Session session) {
-		RpcContext rpcContext = Rpcs.ctx();
+		RpcContext rpcContext = new RpcContext();
+		Rpcs.set(rpcContext);
 		RpcRequest request = JSONObject.parseObject(message, RpcRequest.class);
 		rpcContext.setSession(session);
 		rpcContext.setTook(System.currentTimeMillis()); //设置请求时间
+		rpcContext.setDeadline(Deadline.after(request.getTimeout()));
 
 		rpcContext.setGroupName(request.getGroupName());
 		rpcContext.setReq(request);
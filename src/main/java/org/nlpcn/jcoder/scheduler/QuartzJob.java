@@ -2,20 +2,42 @@ package org.nlpcn.jcoder.scheduler;
 
 import org.nlpcn.jcoder.constant.Constants;
 import org.nlpcn.jcoder.domain.KeyValue;
+import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.job.MasterRunTaskJob;
+import org.nlpcn.jcoder.service.TaskService;
+import org.nlpcn.jcoder.util.StaticValue;
 import org.quartz.Job;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class QuartzJob implements Job {
 
+	private static final Logger LOG = LoggerFactory.getLogger(QuartzJob.class);
+
 	private String name;
 
 	@Override
 	public void execute(JobExecutionContext context) throws JobExecutionException {
 		name = context.getJobDetail().getKey().getName();
 		String[] split = name.split(Constants.GROUP_TASK_SPLIT);
-		MasterRunTaskJob.addQueue(KeyValue.with(split[0], split[1]));
+		if (!StaticValue.SCHEDULE_SHARDED) {
+			MasterRunTaskJob.addQueue(KeyValue.with(split[0], split[1]));
+			return;
+		}
+
+		//分片模式在本机执行
+		Task task = TaskService.findTaskByCache(split[0], split[1]);
+		if (task == null || task.getStatus() == null || task.getStatus() == 0) {
+			LOG.warn("task {} not found or stopped so skip", name);
+			return;
+		}
+		try {
+			TaskRunManager.run(task);
+		} catch (TaskException e) {
+			LOG.error("run task " + name + " err " + e.getMessage());
+		}
 	}
 
 }
@@ -0,0 +1,181 @@
+package org.nlpcn.jcoder.scheduler;
+
+import com.alibaba.fastjson.JSONObject;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.nlpcn.jcoder.constant.Constants;
+import org.nlpcn.jcoder.domain.HostGroup;
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.service.GroupService;
+import org.nlpcn.jcoder.service.SharedSpaceService;
+import org.nlpcn.jcoder.service.balance.HashRing;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.nlpcn.jcoder.util.StringUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+/**
+ * 分片调度, 开启 schedule_sharded 后每个节点只调度一致性hash分到自己的cron task并在本机触发, 不再经过master.
+ * 分片在group的同步主机中计算, host_group临时节点或者task变化后重新分配, 集群中所有节点的配置必须一致.
+ * 重新分配时各节点看到的主机可能短暂不一致, 这期间同一个task可能多触发或者漏掉一次
+ *
+ * @author ansj
+ */
+public class ShardedScheduler {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ShardedScheduler.class);
+
+	private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jcoder-shard-%d").setDaemon(true).build());
+
+	private static final AtomicBoolean PENDING = new AtomicBoolean();
+
+	// 本机调度中的task, key:groupName@taskName value:scheduleStr
+	private static final Map<String, String> OWNED = new ConcurrentHashMap<>();
+
+	// 参与分片的主机状态, key:hostPort_groupName value:current@weight
+	private static final Map<String, String> MEMBERS = new ConcurrentHashMap<>();
+
+	/**
+	 * 启动本机的调度器, 并定时检查分片
+	 */
+	public static void start() throws Exception {
+		QuartzSchedulerManager.startScheduler();
+		EXECUTOR.scheduleWithFixedDelay(ShardedScheduler::rebalance, 0, 60, TimeUnit.SECONDS);
+		LOG.info("sharded scheduler started on " + StaticValue.getHostPort());
+	}
+
+	/**
+	 * 主机或者task变化时调用, 短时间内的多次变化合并为一次
+	 */
+	public static void schedule() {
+		if (PENDING.compareAndSet(false, true)) {
+			EXECUTOR.schedule(() -> {
+				PENDING.set(false);
+				rebalance();
+			}, 1, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * host_group变化时调用, 只有主机加入, 离开或者current和weight变化时重新分片, 定时上报的负载不触发
+	 *
+	 * @param hostGroup 离开时为null
+	 */
+	public static void onHostGroup(String key, HostGroup hostGroup) {
+		if (update(key, hostGroup)) {
+			schedule();
+		}
+	}
+
+	/**
+	 * 记录主机状态
+	 *
+	 * @return 影响分片的状态是否变化
+	 */
+	static boolean update(String key, HostGroup hostGroup) {
+		String member = hostGroup == null ? null : hostGroup.isCurrent() + "@" + hostGroup.getWeight();
+		String old = member == null ? MEMBERS.remove(key) : MEMBERS.put(key, member);
+		return !Objects.equals(old, member);
+	}
+
+	/**
+	 * 计算task所在的主机
+	 *
+	 * @param hosts group的同步主机
+	 * @return 没有主机时返回null
+	 */
+	public static String owner(List<HostGroup> hosts, String groupName, String taskName) {
+		HostGroup hostGroup = new HashRing(hosts).choose(groupName + Constants.GROUP_TASK_SPLIT + taskName, 0);
+		return hostGroup == null ? null : hostGroup.getHostPort();
+	}
+
+	/**
+	 * 本机调度中的task
+	 */
+	public static Map<String, String> owned() {
+		return new HashMap<>(OWNED);
+	}
+
+	private static synchronized void rebalance() {
+		try {
+			GroupService groupService = StaticValue.getSystemIoc().get(GroupService.class, "groupService");
+			String self = StaticValue.getHostPort();
+
+			Map<String, String> expected = new HashMap<>();
+
+			Map<String, ChildData> groups = StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH);
+			if (groups == null) {
+				return;
+			}
+
+			for (String groupName : groups.keySet()) {
+				List<HostGroup> hosts = groupService.getCurrentHostGroup(groupName).stream().filter(h -> h.getWeight() > 0).collect(Collectors.toList());
+				if (hosts.stream().noneMatch(h -> self.equals(h.getHostPort()))) {
+					continue;
+				}
+				Map<String, ChildData> tasks = StaticValue.space().getGroupCache().getCurrentChildren(SharedSpaceService.GROUP_PATH + "/" + groupName);
+				if (tasks == null) {
+					continue;
+				}
+				for (Map.Entry<String, ChildData> entry : tasks.entrySet()) {
+					if ("file".equals(entry.getKey()) || entry.getValue().getData() == null) {
+						continue;
+					}
+					Task task = JSONObject.parseObject(entry.getValue().getData(), Task.class);
+					if (task == null || !isCron(task)) {
+						continue;
+					}
+					if (self.equals(owner(hosts, groupName, task.getName()))) {
+						expected.put(groupName + Constants.GROUP_TASK_SPLIT + task.getName(), task.getScheduleStr());
+					}
+				}
+			}
+
+			for (String key : OWNED.keySet().toArray(new String[0])) {
+				if (!Objects.equals(OWNED.get(key), expected.get(key))) {
+					String[] split = key.split(Constants.GROUP_TASK_SPLIT);
+					QuartzSchedulerManager.removeJob(split[0], split[1]);
+					OWNED.remove(key);
+					LOG.info("{} moved out of {}", key, self);
+				}
+			}
+
+			for (Map.Entry<String, String> entry : expected.entrySet()) {
+				if (OWNED.containsKey(entry.getKey())) {
+					continue;
+				}
+				String[] split = entry.getKey().split(Constants.GROUP_TASK_SPLIT);
+				try {
+					QuartzSchedulerManager.removeJob(split[0], split[1]);
+					QuartzSchedulerManager.addJob(split[0], split[1], entry.getValue());
+					OWNED.put(entry.getKey(), entry.getValue());
+					LOG.info("{} moved into {} cron : {}", entry.getKey(), self, entry.getValue());
+				} catch (Exception e) {
+					LOG.error("schedule " + entry.getKey() + " err cron : " + entry.getValue(), e);
+				}
+			}
+		} catch (Exception e) {
+			LOG.error("rebalance shards err", e);
+		}
+	}
+
+	/**
+	 * 启用的cron任务, while和all仍然由master分配
+	 */
+	public static boolean isCron(Task task) {
+		String scheduleStr = task.getScheduleStr();
+		return task.getType() != null && task.getType() == 2 && task.getStatus() != null && task.getStatus() == 1 && StringUtil.isNotBlank(scheduleStr)
+				&& !"while".equalsIgnoreCase(scheduleStr) && !"all".equalsIgnoreCase(scheduleStr);
+	}
+}
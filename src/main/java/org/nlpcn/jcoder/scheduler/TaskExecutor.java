@@ -0,0 +1,228 @@
+package org.nlpcn.jcoder.scheduler;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个group执行task的线程池, 定时任务在有界的优先级队列中等待固定数量的线程,
+ * while和一次性任务会长时间占用线程, 每次执行使用独占的线程, 同时执行的数量有上限, 超过时拒绝, 不影响定时任务
+ *
+ * @author ansj
+ */
+public class TaskExecutor {
+
+	private static final Logger LOG = LoggerFactory.getLogger(TaskExecutor.class);
+
+	private static final Map<String, TaskExecutor> EXECUTORS = new ConcurrentHashMap<>();
+
+	private final String groupName;
+
+	private final int maxQueue;
+
+	// 定时任务, 按优先级出队
+	private final ThreadPoolExecutor pool;
+
+	// while和一次性任务的线程
+	private final ThreadFactory longFactory;
+
+	private final int maxLong;
+
+	// while和一次性任务可以使用的线程数
+	private final Semaphore longSlots;
+
+	// overlap=QUEUE 的task同时只有一个执行, 其余的在这里等待, key为taskName
+	private final Map<String, ArrayDeque<TaskJob>> serial = new HashMap<>();
+
+	private final AtomicLong submitted = new AtomicLong();
+
+	private final AtomicLong completed = new AtomicLong();
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	TaskExecutor(String groupName, int threads, int maxQueue, int maxLong) {
+		this.groupName = groupName;
+		this.maxQueue = maxQueue;
+		this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+				new ThreadFactoryBuilder().setNameFormat("jcoder-task-" + groupName + "-%d").setDaemon(true).build());
+		this.pool.allowCoreThreadTimeOut(true);
+		this.longFactory = new ThreadFactoryBuilder().setNameFormat("jcoder-while-" + groupName + "-%d").setDaemon(true).build();
+		this.maxLong = maxLong;
+		this.longSlots = new Semaphore(maxLong);
+	}
+
+	public static TaskExecutor of(String groupName) {
+		return EXECUTORS.computeIfAbsent(groupName, k -> new TaskExecutor(k, Math.max(1, StaticValue.TASK_THREADS), StaticValue.TASK_QUEUE_SIZE, Math.max(1, StaticValue.TASK_LONG_THREADS)));
+	}
+
+	/**
+	 * 获得本节点task线程池的统计信息
+	 *
+	 * @param groupName 为空时返回全部
+	 */
+	public static List<Map<String, Object>> allStats(String groupName) {
+		List<Map<String, Object>> result = new ArrayList<>();
+		for (TaskExecutor executor : EXECUTORS.values()) {
+			if (groupName == null || groupName.length() == 0 || groupName.equals(executor.groupName)) {
+				result.add(executor.stats());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 提交一次执行, 队列满时拒绝
+	 */
+	public void execute(TaskJob job) throws TaskException {
+		job.setExecutor(this);
+		if (job.isSerial()) {
+			synchronized (serial) {
+				ArrayDeque<TaskJob> waiting = serial.get(job.getTask().getName());
+				if (waiting != null) { // 上一次执行还没有结束
+					if (queued() >= maxQueue) {
+						rejected.incrementAndGet();
+						throw new TaskException(groupName + " task queue is full " + maxQueue + " so reject " + job.getName());
+					}
+					waiting.add(job);
+					submitted.incrementAndGet();
+					return;
+				}
+				serial.put(job.getTask().getName(), new ArrayDeque<>());
+			}
+		}
+		try {
+			dispatch(job);
+		} catch (TaskException e) {
+			if (job.isSerial()) {
+				synchronized (serial) {
+					serial.remove(job.getTask().getName());
+				}
+			}
+			throw e;
+		}
+	}
+
+	private void dispatch(TaskJob job) throws TaskException {
+		if (job.isLongRunning()) {
+			startLong(job);
+			return;
+		}
+		if (pool.getQueue().size() >= maxQueue) {
+			rejected.incrementAndGet();
+			throw new TaskException(groupName + " task queue is full " + maxQueue + " so reject " + job.getName());
+		}
+		try {
+			pool.execute(job);
+			submitted.incrementAndGet();
+		} catch (RejectedExecutionException e) {
+			rejected.incrementAndGet();
+			throw new TaskException(groupName + " reject " + job.getName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * 在独占的线程中执行, 停止时可以强制结束而不影响其他task
+	 */
+	private void startLong(TaskJob job) throws TaskException {
+		if (!longSlots.tryAcquire()) {
+			rejected.incrementAndGet();
+			throw new TaskException(groupName + " long running tasks reach the limit " + maxLong + " so reject " + job.getName());
+		}
+		try {
+			longFactory.newThread(() -> {
+				try {
+					job.run();
+				} finally {
+					longSlots.release();
+				}
+			}).start();
+			submitted.incrementAndGet();
+		} catch (Throwable e) {
+			longSlots.release();
+			rejected.incrementAndGet();
+			throw new TaskException(groupName + " reject " + job.getName() + " " + e.getMessage());
+		}
+	}
+
+	/**
+	 * 一次执行结束, 串行的task开始下一次
+	 */
+	void done(TaskJob job) {
+		completed.incrementAndGet();
+		if (!job.isSerial()) {
+			return;
+		}
+		TaskJob next;
+		synchronized (serial) {
+			ArrayDeque<TaskJob> waiting = serial.get(job.getTask().getName());
+			next = waiting == null ? null : waiting.poll();
+			if (next == null) {
+				serial.remove(job.getTask().getName());
+			}
+		}
+		if (next != null) {
+			try {
+				dispatch(next);
+			} catch (TaskException e) {
+				LOG.error(e.getMessage());
+				TaskRunManager.remove(next.getName());
+				done(next);
+			}
+		}
+	}
+
+	/**
+	 * 从队列中移除一个还没有开始的执行
+	 */
+	boolean remove(TaskJob job) {
+		if (pool.remove(job)) {
+			done(job);
+			return true;
+		}
+		synchronized (serial) {
+			ArrayDeque<TaskJob> waiting = serial.get(job.getTask().getName());
+			return waiting != null && waiting.remove(job);
+		}
+	}
+
+	private int queued() {
+		int size = pool.getQueue().size();
+		for (ArrayDeque<TaskJob> waiting : serial.values()) {
+			size += waiting.size();
+		}
+		return size;
+	}
+
+	public Map<String, Object> stats() {
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("groupName", groupName);
+		map.put("threads", pool.getMaximumPoolSize());
+		map.put("active", pool.getActiveCount());
+		map.put("longRunning", maxLong - longSlots.availablePermits());
+		map.put("maxLongRunning", maxLong);
+		synchronized (serial) {
+			map.put("queued", queued());
+		}
+		map.put("maxQueue", maxQueue);
+		map.put("submitted", submitted.get());
+		map.put("completed", completed.get());
+		map.put("rejected", rejected.get());
+		return map;
+	}
+}
@@ -2,26 +2,63 @@ package org.nlpcn.jcoder.scheduler;
 
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.run.java.JavaRunner;
+import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.run.rpc.domain.RpcContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class TaskJob extends Thread {
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * task的一次执行, 在group的TaskExecutor中运行, 排队中和执行中都可以通过名字查看和停止
+ */
+public class TaskJob implements Runnable, Comparable<TaskJob> {
 
 	private static final Logger LOG = LoggerFactory.getLogger(TaskJob.class);
 
-	private Task task = null;
+	private static final AtomicLong SEQ = new AtomicLong();
 
+	private final String name;
+
+	private Task task = null;
 
 	private long startTime = System.currentTimeMillis();
 
+	private final int priority;
+
+	// 同优先级按提交顺序执行
+	private final long seq = SEQ.getAndIncrement();
+
+	// while或者一次性任务, 长时间占用线程
+	private final boolean longRunning;
+
+	// 同一个task的执行是否串行
+	private final boolean serial;
+
+	private final Deadline deadline = Deadline.unbounded();
+
+	private volatile Thread thread;
+
+	private volatile boolean cancelled;
+
+	private TaskExecutor executor;
+
 	/**
 	 * 运行一个任务
 	 *
 	 * @param name
 	 */
 	public TaskJob(String name, Task task) {
-		super(name);
+		this(name, task, 0, false, false);
+	}
+
+	public TaskJob(String name, Task task, int priority, boolean longRunning, boolean serial) {
+		this.name = name;
 		this.task = task;
+		this.priority = priority;
+		this.longRunning = longRunning;
+		this.serial = serial;
 	}
 
 	public long getStartTime() {
@@ -30,7 +67,39 @@ public class TaskJob extends Thread {
 
 	@Override
 	public void run() {
-		TaskRunManager.put(this.getName(),this);
+		RpcContext old = Rpcs.current(); //线程池中的线程保留着上一次执行的上下文
+		try {
+			synchronized (this) {
+				if (cancelled) {
+					LOG.info("{} cancelled before run", name);
+					return;
+				}
+				thread = Thread.currentThread();
+			}
+			startTime = System.currentTimeMillis();
+			TaskRunManager.put(name, thread, deadline);
+			RpcContext rpcContext = new RpcContext(); //task通过 Rpcs.ctx().getDeadline() 感知停止
+			rpcContext.setGroupName(task.getGroupName());
+			rpcContext.setDeadline(deadline);
+			Rpcs.set(rpcContext);
+			execute();
+		} finally {
+			synchronized (this) { // 之后不会再有针对这次执行的中断
+				thread = null;
+			}
+			Thread.interrupted(); // 停止时的中断标记不能带到线程池的下一个执行
+			Rpcs.set(old);
+			TaskRunManager.remove(name);
+			if (executor != null) {
+				executor.done(this);
+			}
+		}
+	}
+
+	/**
+	 * 执行task并记录成功和失败次数
+	 */
+	protected void execute() {
 		try {
 			new JavaRunner(task).compile().instance().execute();
 			task.updateSuccess();
@@ -38,15 +107,85 @@ public class TaskJob extends Thread {
 			task.updateError();
 			e.printStackTrace();
 			LOG.error(e.getMessage(), e);
-		} finally {
-			TaskRunManager.remove(this.getName());
 		}
+	}
 
+	/**
+	 * 取消这次执行, 排队中的不会再开始, 执行中的通过deadline通知task
+	 *
+	 * @return 是否已经开始执行
+	 */
+	public synchronized boolean cancel() {
+		cancelled = true;
+		deadline.cancel();
+		return thread != null;
+	}
+
+	/**
+	 * 中断执行这次任务的线程, 执行结束后线程可能已经在执行其他任务, 所以和清除线程使用同一个锁
+	 *
+	 * @return 是否还在执行
+	 */
+	synchronized boolean interrupt() {
+		if (thread == null) {
+			return false;
+		}
+		thread.interrupt();
+		return true;
+	}
+
+	/**
+	 * 强制结束, 只用于独占线程的while和一次性任务, 线程池中的线程不能强制结束
+	 *
+	 * @return 是否结束了线程
+	 */
+	@SuppressWarnings("deprecation")
+	synchronized boolean kill() {
+		if (thread == null || !longRunning) {
+			return false;
+		}
+		thread.stop();
+		return true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public boolean isRunning() {
+		return thread != null;
+	}
+
+	public String getName() {
+		return name;
 	}
 
 	public Task getTask() {
 		return task;
 	}
 
+	public int getPriority() {
+		return priority;
+	}
+
+	public boolean isLongRunning() {
+		return longRunning;
+	}
+
+	public boolean isSerial() {
+		return serial;
+	}
+
+	void setExecutor(TaskExecutor executor) {
+		this.executor = executor;
+	}
+
+	@Override
+	public int compareTo(TaskJob o) {
+		if (priority != o.priority) {
+			return priority > o.priority ? -1 : 1;
+		}
+		return Long.compare(seq, o.seq);
+	}
 
 }
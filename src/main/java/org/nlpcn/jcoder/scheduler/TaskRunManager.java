@@ -1,9 +1,13 @@
 package org.nlpcn.jcoder.scheduler;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.nlpcn.jcoder.constant.Constants;
+import org.nlpcn.jcoder.domain.CodeInfo;
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.domain.TaskInfo;
+import org.nlpcn.jcoder.run.annotation.Schedule;
 import org.nlpcn.jcoder.run.java.JavaRunner;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
 import org.nlpcn.jcoder.service.TaskService;
 import org.nlpcn.jcoder.util.DateUtils;
 import org.nlpcn.jcoder.util.StaticValue;
@@ -14,6 +18,9 @@ import org.slf4j.LoggerFactory;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -23,25 +30,55 @@ public class TaskRunManager {
 
 	private static final ConcurrentHashMap<String, Thread> THREAD_POOL = new ConcurrentHashMap<>();
 
+	// 执行中的请求的取消标记, 停止时先通知task主动结束
+	private static final ConcurrentHashMap<String, Deadline> DEADLINES = new ConcurrentHashMap<>();
+
+	// task的执行, 包括排队中的, key同THREAD_POOL
+	private static final ConcurrentHashMap<String, TaskJob> RUNS = new ConcurrentHashMap<>();
+
 	private static final AtomicLong JOB_ID = new AtomicLong();
 
+	// 等待旧版本api排空的线程
+	private static final ScheduledExecutorService DRAINER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jcoder-drain-%d").setDaemon(true).build());
+
 	public static synchronized void stop(String key) throws TaskException {
-		if (THREAD_POOL.containsKey(key)) {
+		TaskJob job = RUNS.get(key);
+		if (job != null) {
+			stop(job);
+			return;
+		}
 
-			Thread remove = THREAD_POOL.get(key);
+		if (THREAD_POOL.containsKey(key)) {
 
-			// 10次尝试将线程移除队列中
-			for (int i = 0; i < 10; i++) {
-				if (remove.isAlive()) {
+			Deadline deadline = DEADLINES.get(key);
+			if (deadline != null) {
+				deadline.cancel();
+				for (int i = 0; i < 10 && THREAD_POOL.containsKey(key); i++) {
 					try {
-						remove.interrupt();
-					} catch (Exception e) {
-						e.printStackTrace();
-						LOG.error(e.getMessage(), e);
+						Thread.sleep(100L);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						break;
 					}
-				} else {
-					THREAD_POOL.remove(key);
-					LOG.info("thread has been stopd!");
+				}
+				if (!THREAD_POOL.containsKey(key)) {
+					LOG.info(key + " cancelled by itself");
+					return;
+				}
+			}
+
+			Thread remove = THREAD_POOL.get(key);
+			if (remove == null) {
+				return;
+			}
+
+			// 10次尝试中断, 线程是复用的, 以执行是否结束而不是线程是否存活为准
+			for (int i = 0; i < 10 && THREAD_POOL.get(key) == remove; i++) {
+				try {
+					remove.interrupt();
+				} catch (Exception e) {
+					e.printStackTrace();
+					LOG.error(e.getMessage(), e);
 				}
 				try {
 					Thread.sleep(100L);
@@ -51,10 +88,13 @@ public class TaskRunManager {
 				}
 			}
 
-			if (THREAD_POOL.containsKey(key)) {
-				remove.stop();
+			if (THREAD_POOL.get(key) != remove) {
+				LOG.info("thread has been stopd!");
+				return;
 			}
 
+			remove.stop();
+
 			try {
 				Thread.sleep(1000L);
 			} catch (InterruptedException e) {
@@ -62,9 +102,8 @@ public class TaskRunManager {
 				LOG.error(e.getMessage(), e);
 			}
 
-			if (remove.isAlive()) {
-				THREAD_POOL.remove(key);
-			} else {
+			if (THREAD_POOL.get(key) == remove) {
+				remove(key);
 				throw new TaskException(key + " stop Failure");
 			}
 		} else {
@@ -72,6 +111,53 @@ public class TaskRunManager {
 		}
 	}
 
+	/**
+	 * 停止task的一次执行. 线程池中的线程会被下一个执行复用, 所以通过执行本身取消和中断, 不按线程停止,
+	 * 只有独占线程的while和一次性任务在中断无效时强制结束
+	 */
+	private static void stop(TaskJob job) throws TaskException {
+		String key = job.getName();
+		if (!job.cancel()) { // 排队中的执行直接移出队列, 之后也不会再开始
+			TaskExecutor.of(job.getTask().getGroupName()).remove(job);
+			RUNS.remove(key);
+			LOG.info(key + " removed from queue");
+			return;
+		}
+
+		// 先等待task通过deadline主动结束, 再尝试中断
+		for (int i = 0; i < 20 && RUNS.get(key) == job; i++) {
+			if (i >= 10 && !job.interrupt()) {
+				break;
+			}
+			try {
+				Thread.sleep(100L);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if (RUNS.get(key) != job) {
+			LOG.info(key + " has been stopped");
+			return;
+		}
+
+		if (!job.kill()) {
+			throw new TaskException(key + " not respond to cancel and interrupt, it will stop after it return");
+		}
+
+		try {
+			Thread.sleep(1000L);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if (RUNS.get(key) == job) {
+			remove(key);
+			throw new TaskException(key + " stop Failure");
+		}
+	}
+
 	/**
 	 * 得到当前的任务队列
 	 *
@@ -88,14 +174,34 @@ public class TaskRunManager {
 	 * @return
 	 */
 	public static boolean checkTaskExists(String groupName, String taskName) {
+		String prefix = groupName + Constants.GROUP_TASK_SPLIT + taskName + Constants.GROUP_TASK_SPLIT;
 		for (String threadName : THREAD_POOL.keySet()) {
-			if (threadName.startsWith(groupName + Constants.GROUP_TASK_SPLIT + taskName)) {
+			if (threadName.startsWith(prefix)) {
+				return true;
+			}
+		}
+		for (String threadName : RUNS.keySet()) { // 排队中的执行
+			if (threadName.startsWith(prefix)) {
 				return true;
 			}
 		}
 		return false;
 	}
 
+	/**
+	 * 本机排队和执行中的task数
+	 */
+	public static int runningCount() {
+		return RUNS.size();
+	}
+
+	/**
+	 * group在本机排队和执行中的task名称, 同一个task只出现一次
+	 */
+	public static List<String> runningTasks(String groupName) {
+		return RUNS.values().stream().map(TaskJob::getTask).filter(t -> groupName.equals(t.getGroupName())).map(Task::getName).distinct().sorted().collect(Collectors.toList());
+	}
+
 	/**
 	 * 检查threadName是否存在.
 	 *
@@ -113,6 +219,7 @@ public class TaskRunManager {
 	 */
 	public static void stopAll(String groupName, String taskName) {
 		Set<String> all = new HashSet<>(THREAD_POOL.keySet());
+		all.addAll(RUNS.keySet()); //排队中的也要停止
 		String pre = groupName + "@" + taskName + "@";
 		for (String key : all) {
 			try {
@@ -132,7 +239,12 @@ public class TaskRunManager {
 	 * @param key
 	 */
 	public static void remove(String key) {
+		if (key == null) {
+			return;
+		}
 		THREAD_POOL.remove(key);
+		DEADLINES.remove(key);
+		RUNS.remove(key);
 	}
 
 
@@ -146,6 +258,14 @@ public class TaskRunManager {
 		THREAD_POOL.put(key, thread);
 	}
 
+	/**
+	 * 增加一个执行中的请求, 停止时先通过deadline通知task主动结束
+	 */
+	public static void put(String key, Thread thread, Deadline deadline) {
+		THREAD_POOL.put(key, thread);
+		DEADLINES.put(key, deadline);
+	}
+
 
 	/**
 	 * 刷新task 相当于从定时任务中移除，并且重新插入,非线程安全.如果调用记得在外层锁定对象
@@ -173,6 +293,59 @@ public class TaskRunManager {
 	}
 
 
+	/**
+	 * 是否可以蓝绿切换, 新旧版本都是同一个group中启用的api
+	 */
+	public static boolean reloadable(Task oldTask, Task newTask) {
+		return oldTask != null && newTask != null && StringUtil.isNotBlank(oldTask.getName()) && StringUtil.isNotBlank(newTask.getName())
+				&& oldTask.getType() != null && oldTask.getType() == 1 && oldTask.getStatus() != null && oldTask.getStatus() == 1
+				&& newTask.getType() != null && newTask.getType() == 1 && newTask.getStatus() != null && newTask.getStatus() == 1
+				&& oldTask.getGroupName().equals(newTask.getGroupName());
+	}
+
+	/**
+	 * 蓝绿切换api, 新版本已经在自己的classloader中编译预热完成.
+	 * 先注册新版本的地址并替换调用链, 再删除不存在的方法, 旧版本执行中的请求结束后释放
+	 */
+	public static void reload(Task oldTask, Task newTask) {
+		Set<String> methods = new HashSet<>();
+		newTask.codeInfo().getExecuteMethods().forEach(m -> {
+			methods.add(m.getName());
+			StaticValue.space().addMapping(newTask.getGroupName(), newTask.getName(), m.getName());
+		});
+
+		StaticValue.MAPPING.swap(oldTask, newTask);
+
+		boolean renamed = !oldTask.getName().equals(newTask.getName());
+		oldTask.codeInfo().getExecuteMethods().forEach(m -> {
+			if (renamed || !methods.contains(m.getName())) {
+				StaticValue.space().removeMapping(oldTask.getGroupName(), oldTask.getName(), m.getName());
+			}
+		});
+
+		drain(oldTask, System.currentTimeMillis() + StaticValue.RELOAD_DRAIN_TIMEOUT);
+	}
+
+	/**
+	 * 等待旧版本执行中的请求结束后释放, 超时后不再等待也不中断它们
+	 */
+	private static void drain(Task oldTask, long deadline) {
+		CodeInfo codeInfo = oldTask.codeInfo();
+		DRAINER.schedule(() -> {
+			int running = codeInfo.getRunning();
+			if (running > 0 && System.currentTimeMillis() < deadline) {
+				drain(oldTask, deadline);
+				return;
+			}
+			if (running > 0) {
+				LOG.warn("{}/{} old version still has {} running after drain timeout, release it", oldTask.getGroupName(), oldTask.getName(), running);
+			} else {
+				LOG.info("{}/{} old version drained, release it", oldTask.getGroupName(), oldTask.getName());
+			}
+			codeInfo.release();
+		}, 100, TimeUnit.MILLISECONDS);
+	}
+
 	/**
 	 * 更新映射
 	 */
@@ -203,18 +376,17 @@ public class TaskRunManager {
 	 * @return
 	 */
 	public static List<TaskInfo> getAllThread() {
-		Collection<Entry<String, Thread>> entries = THREAD_POOL.entrySet().stream().filter(e -> e.getValue() instanceof TaskJob).collect(Collectors.toSet());
 		List<TaskInfo> threads = new ArrayList<>();
-		for (Entry<String, Thread> entry : entries) {
-			Task task = ((TaskJob) entry.getValue()).getTask();
-			if (entry.getValue().isInterrupted()) {
+		for (TaskJob job : RUNS.values()) {
+			Task task = job.getTask();
+			if (job.isCancelled()) {
 				task.setRunStatus("Stoping");
-			} else if (entry.getValue().isAlive()) {
+			} else if (job.isRunning()) {
 				task.setRunStatus("Runging");
 			} else {
-				task.setRunStatus("UnKnow");
+				task.setRunStatus("Queued");
 			}
-			threads.add(new TaskInfo(entry.getKey(), task, ((TaskJob) entry.getValue()).getStartTime()));
+			threads.add(new TaskInfo(job.getName(), task, job.getStartTime()));
 		}
 		return threads;
 	}
@@ -225,7 +397,7 @@ public class TaskRunManager {
 	 * @return
 	 */
 	public static List<TaskInfo> getAllAction() {
-		Collection<Entry<String, Thread>> entries = THREAD_POOL.entrySet().stream().filter(e -> !(e.getValue() instanceof TaskJob)).collect(Collectors.toSet());
+		Collection<Entry<String, Thread>> entries = THREAD_POOL.entrySet().stream().filter(e -> !RUNS.containsKey(e.getKey())).collect(Collectors.toSet());
 		List<TaskInfo> actions = new ArrayList<>();
 		for (Entry<String, Thread> entry : entries) {
 			String key = entry.getKey();
@@ -248,20 +420,35 @@ public class TaskRunManager {
 		return actions;
 	}
 
+	/**
+	 * 提交task到group的线程池中执行, while和一次性任务只会有一个实例,
+	 * 定时任务按@Schedule的overlap处理上一次还未结束的情况
+	 */
 	public static void run(Task task) throws TaskException {
+		boolean longRunning = StringUtil.isBlank(task.getScheduleStr()) || "while".equals(task.getScheduleStr().toLowerCase());
+
+		Schedule schedule = null;
+		try {
+			schedule = new JavaRunner(task).compile().getTask().codeInfo().getClassz().getAnnotation(Schedule.class);
+		} catch (Exception e) {
+			LOG.warn("compile {}/{} err so run it by default schedule", task.getGroupName(), task.getName(), e);
+		}
+
+		Schedule.Overlap overlap = longRunning ? Schedule.Overlap.SKIP : schedule == null ? Schedule.Overlap.CONCURRENT : schedule.overlap();
+
 		//如果是while或者一次性任务将不再添加进来
-		if (StringUtil.isBlank(task.getScheduleStr()) || "while".equals(task.getScheduleStr().toLowerCase())) {
-			if (TaskRunManager.checkTaskExists(task.getGroupName(), task.getName())) {
-				LOG.warn("task " + task.getName() + " has been in joblist so skip it ");
-				return;
-			}
+		if (overlap == Schedule.Overlap.SKIP && TaskRunManager.checkTaskExists(task.getGroupName(), task.getName())) {
+			LOG.warn("task " + task.getName() + " has been in joblist so skip it ");
+			return;
 		}
 
-		TaskJob taskJob = new TaskJob(makeThreadKey(task), task);
+		TaskJob taskJob = new TaskJob(makeThreadKey(task), task, schedule == null ? 0 : schedule.priority(), longRunning, overlap == Schedule.Overlap.QUEUE);
+		RUNS.put(taskJob.getName(), taskJob);
 		try {
-			taskJob.start(); //裏面負責放縣城和清理縣城
-		} catch (Exception e) {
-			throw new TaskException("the thread " + taskJob.getName() + e.toString());
+			TaskExecutor.of(task.getGroupName()).execute(taskJob);
+		} catch (TaskException e) {
+			RUNS.remove(taskJob.getName());
+			throw e;
 		}
 	}
 
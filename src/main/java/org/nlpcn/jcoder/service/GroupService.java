@@ -239,6 +239,19 @@ public class GroupService {
 		return collect;
 	}
 
+	/**
+	 * 获取group全部和主版本同步着的主机信息, 包含主机上报的负载
+	 */
+	public List<HostGroup> getCurrentHostGroup(String groupName) {
+		return StaticValue.space().getHostGroupCache().entrySet()
+				.stream().filter(e -> e.getValue().isCurrent())
+				.filter(e -> groupName.equals(e.getKey().split("_")[1]))
+				.map(e -> {
+					e.getValue().setHostPort(e.getKey().split("_")[0]);
+					return e.getValue();
+				}).collect(Collectors.toList());
+	}
+
 	/**
 	 * 从主机集群中获取随机一个同步版本的机器，如果机器不存在则返回null
 	 *
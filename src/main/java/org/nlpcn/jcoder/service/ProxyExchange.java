@@ -0,0 +1,286 @@
+package org.nlpcn.jcoder.service;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.api.Result;
+import org.eclipse.jetty.client.util.DeferredContentProvider;
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpVersion;
+import org.eclipse.jetty.util.Callback;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.service.balance.TargetStats;
+import org.nlpcn.jcoder.util.ApiException;
+import org.nlpcn.jcoder.util.Restful;
+import org.nlpcn.jcoder.util.StaticValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.nlpcn.jcoder.constant.Constants.DEADLINE_HEADER;
+import static org.nlpcn.jcoder.constant.Constants.PROXY_HEADER;
+
+/**
+ * 一次异步代理请求, 请求体和返回体都以流的方式转发, 不占用jetty的工作线程
+ *
+ * @author ansj
+ */
+class ProxyExchange {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ProxyExchange.class);
+
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	// 异步请求在httpclient超时之后多等待的毫秒数
+	private static final long ASYNC_GRACE = 5000L;
+
+	private final HttpServletRequest req;
+
+	private final HttpServletResponse rep;
+
+	private final AsyncContext async;
+
+	private final Set<String> hopHeaders;
+
+	// 待写入客户端的数据, 写完后回调通知httpclient继续读取
+	private final ArrayDeque<Object[]> pending = new ArrayDeque<>();
+
+	private ServletOutputStream out;
+
+	private boolean completed = false;
+
+	private final TargetStats stats;
+
+	private final long start;
+
+	ProxyExchange(HttpServletRequest req, HttpServletResponse rep, Set<String> hopHeaders, TargetStats stats) {
+		this.stats = stats;
+		this.req = req;
+		this.rep = rep;
+		this.hopHeaders = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+		this.hopHeaders.addAll(hopHeaders);
+		this.async = req.startAsync();
+		this.start = stats.start();
+	}
+
+	/**
+	 * @param deadline 有截止时间时转发剩余的毫秒数, 到期后放弃代理请求
+	 */
+	void send(HttpClient client, String uri, Deadline deadline) throws IOException {
+		Request request = client.newRequest(uri).method(req.getMethod()).version(HttpVersion.HTTP_1_1);
+
+		Enumeration<String> headerNames = req.getHeaderNames();
+		while (headerNames.hasMoreElements()) {
+			String key = headerNames.nextElement();
+			if (hopHeaders.contains(key) || HttpHeader.HOST.is(key) || DEADLINE_HEADER.equalsIgnoreCase(key)) {
+				continue;
+			}
+			Enumeration<String> values = req.getHeaders(key);
+			while (values.hasMoreElements()) {
+				request.header(key, values.nextElement());
+			}
+		}
+		request.header(PROXY_HEADER, "true");
+		long timeout = StaticValue.PROXY_TIMEOUT;
+		if (deadline.isBounded()) {
+			request.header(DEADLINE_HEADER, deadline.toHeader());
+			timeout = timeout > 0 ? Math.min(timeout, deadline.remaining()) : deadline.remaining();
+		}
+		if (timeout > 0 || deadline.isBounded()) {
+			timeout = Math.max(1, timeout);
+			request.timeout(timeout, TimeUnit.MILLISECONDS);
+			// httpclient超时后还需要写出错误信息, 异步请求多等待一段时间
+			async.setTimeout(timeout + ASYNC_GRACE);
+		} else {
+			async.setTimeout(0);
+		}
+		async.addListener(new AsyncListener() {
+			@Override
+			public void onTimeout(AsyncEvent event) {
+				LOG.warn("proxy to " + uri + " async timeout");
+				request.abort(new TimeoutException("proxy to " + uri + " timeout"));
+				complete();
+			}
+
+			@Override
+			public void onComplete(AsyncEvent event) {
+			}
+
+			@Override
+			public void onError(AsyncEvent event) {
+			}
+
+			@Override
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+
+		if (req.getContentLengthLong() > 0 || req.getHeader(HttpHeader.TRANSFER_ENCODING.asString()) != null) {
+			DeferredContentProvider content = new DeferredContentProvider();
+			request.content(content);
+			ServletInputStream in = req.getInputStream();
+			in.setReadListener(new ReadListener() {
+				private final byte[] buffer = new byte[8192];
+
+				@Override
+				public void onDataAvailable() throws IOException {
+					int len;
+					while (in.isReady() && (len = in.read(buffer)) != -1) {
+						byte[] copy = new byte[len];
+						System.arraycopy(buffer, 0, copy, 0, len);
+						content.offer(ByteBuffer.wrap(copy));
+					}
+				}
+
+				@Override
+				public void onAllDataRead() {
+					content.close();
+				}
+
+				@Override
+				public void onError(Throwable t) {
+					content.failed(t);
+				}
+			});
+		}
+
+		out = rep.getOutputStream();
+		out.setWriteListener(new WriteListener() {
+			@Override
+			public void onWritePossible() throws IOException {
+				drain();
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				LOG.warn("write proxy response err " + uri, t);
+				request.abort(t);
+				complete();
+			}
+		});
+
+		request.onResponseHeaders(this::copyHeaders).onResponseContentAsync((response, content, callback) -> {
+			synchronized (pending) {
+				pending.add(new Object[]{content, callback});
+			}
+			try {
+				drain();
+			} catch (IOException e) {
+				callback.failed(e);
+			}
+		}).send(result -> onComplete(uri, result));
+	}
+
+	private void copyHeaders(Response response) {
+		// httpclient 会自动解压, 解压后长度已经变化
+		boolean decoded = response.getHeaders().containsKey(HttpHeader.CONTENT_ENCODING.asString());
+		rep.setStatus(response.getStatus());
+		for (HttpField field : response.getHeaders()) {
+			if (hopHeaders.contains(field.getName())) {
+				continue;
+			}
+			if (decoded && field.getHeader() == HttpHeader.CONTENT_LENGTH) {
+				continue;
+			}
+			rep.addHeader(field.getName(), field.getValue());
+		}
+	}
+
+	private void onComplete(String uri, Result result) {
+		stats.end(start, result.isSucceeded() && result.getResponse().getStatus() < 500);
+		if (result.isFailed()) {
+			LOG.error("proxy to " + uri + " err", result.getFailure());
+			int status = result.getFailure() instanceof TimeoutException ? ApiException.GatewayTimeout : ApiException.ServerException;
+			synchronized (pending) {
+				if (!rep.isCommitted()) {
+					pending.clear();
+					rep.reset();
+					rep.setStatus(status);
+					rep.setContentType("application/json");
+					byte[] bytes = Restful.instance(false, "proxy to " + uri + " err : " + result.getFailure().getMessage(), null, status).toJsonString().getBytes(StandardCharsets.UTF_8);
+					pending.add(new Object[]{ByteBuffer.wrap(bytes), Callback.NOOP});
+				} else {
+					pending.clear();
+					complete();
+					return;
+				}
+			}
+		}
+		synchronized (pending) {
+			pending.add(new Object[]{END, Callback.NOOP});
+		}
+		try {
+			drain();
+		} catch (IOException e) {
+			LOG.warn("write proxy response err " + uri, e);
+			complete();
+		}
+	}
+
+	/**
+	 * 把队列中的数据写入客户端, 不可写时等待 onWritePossible 再次调用
+	 */
+	private void drain() throws IOException {
+		List<Callback> written = new ArrayList<>(1);
+		try {
+			synchronized (pending) {
+				while (!pending.isEmpty() && !completed && out.isReady()) {
+					Object[] chunk = pending.poll();
+					ByteBuffer buffer = (ByteBuffer) chunk[0];
+					if (buffer == END) {
+						complete();
+						return;
+					}
+					if (buffer.hasArray()) {
+						out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+					} else {
+						byte[] bytes = new byte[buffer.remaining()];
+						buffer.get(bytes);
+						out.write(bytes);
+					}
+					written.add((Callback) chunk[1]);
+				}
+			}
+		} finally {
+			// 在锁外通知httpclient继续读取, 避免回调中再次进入drain
+			for (Callback callback : written) {
+				callback.succeeded();
+			}
+		}
+	}
+
+	private void complete() {
+		synchronized (pending) {
+			if (completed) {
+				return;
+			}
+			completed = true;
+			for (Object[] chunk : pending) {
+				((Callback) chunk[1]).failed(new IOException("proxy exchange closed"));
+			}
+			pending.clear();
+		}
+		async.complete();
+	}
+}
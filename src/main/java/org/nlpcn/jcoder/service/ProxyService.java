@@ -4,14 +4,27 @@ package org.nlpcn.jcoder.service;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.curator.framework.recipes.cache.ChildData;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.util.ssl.SslContextFactory;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
 import org.nlpcn.jcoder.constant.UserConstants;
 import org.nlpcn.jcoder.domain.HostGroup;
 import org.nlpcn.jcoder.domain.Token;
 import org.nlpcn.jcoder.domain.User;
+import org.nlpcn.jcoder.run.mvc.ApiRoute;
+import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.service.balance.Balancer;
+import org.nlpcn.jcoder.service.balance.Balancers;
+import org.nlpcn.jcoder.service.balance.HashRing;
+import org.nlpcn.jcoder.service.balance.TargetStats;
 import org.nlpcn.jcoder.util.Restful;
 import org.nlpcn.jcoder.util.StaticValue;
 import org.nlpcn.jcoder.util.StringUtil;
+import org.nlpcn.jcoder.util.ZKMap;
 import org.nutz.http.*;
 import org.nutz.ioc.loader.annotation.IocBean;
 import org.nutz.lang.Streams;
@@ -25,13 +38,15 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
+import static org.nlpcn.jcoder.constant.Constants.DEADLINE_HEADER;
 import static org.nlpcn.jcoder.constant.Constants.PROXY_HEADER;
 import static org.nlpcn.jcoder.service.SharedSpaceService.HOST_GROUP_PATH;
 import static org.nlpcn.jcoder.service.SharedSpaceService.MAPPING_PATH;
 
-@IocBean
+@IocBean(depose = "close")
 public class ProxyService {
 
 	protected static final Set<String> HOP_HEADERS = Sets.newHashSet("Connection", "Keep-Alive", "Proxy-Authenticate", "Proxy-Authorization",
@@ -96,8 +111,30 @@ public class ProxyService {
 		asciiQueryChars.set((int) '%');//leave existing percent escapes in place
 	}
 
+	/**
+	 * 集群内批量请求共享的线程池
+	 */
+	private static final ThreadPoolExecutor FAN_OUT_POOL = new ThreadPoolExecutor(32, 32, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(4096),
+			new ThreadFactoryBuilder().setNameFormat("jcoder-fan-out-%d").setDaemon(true).build());
+
+	private static final ScheduledExecutorService DEADLINE_TIMER = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("jcoder-fan-out-deadline").setDaemon(true).build());
+
+	static {
+		FAN_OUT_POOL.allowCoreThreadTimeOut(true);
+	}
+
 	private String myToken = null;
 
+	/**
+	 * 异步代理使用的httpclient, 按照目标hostPort维护长连接池
+	 */
+	private volatile HttpClient httpClient;
+
+	/**
+	 * 一致性hash环, key:groupName/className/methodName, 或者groupName为group所有同步主机的环
+	 */
+	private final Map<String, HashRing> rings = new ConcurrentHashMap<>();
+
 	/**
 	 * Encodes characters in the query or fragment part of the URI. <p> <p>Unfortunately, an
 	 * incoming URI sometimes has characters disallowed by the spec.  HttpClient insists that the
@@ -139,18 +176,75 @@ public class ProxyService {
 	}
 
 	/**
-	 * 执行请求
+	 * 异步执行代理请求, 请求和返回以流的方式转发, 方法返回时请求可能还未完成
 	 *
 	 * @return true 代表经过代理，false代表不需要代理
 	 */
-	public boolean service(HttpServletRequest req, HttpServletResponse rep, String targetUrl)
-			throws ServletException, IOException {
-
+	public boolean serviceAsync(HttpServletRequest req, HttpServletResponse rep, String targetUrl) throws ServletException, IOException {
 		if (req.getHeader(PROXY_HEADER) != null) {
-			LOG.warn("SKIP " + targetUrl + " because it header has " + PROXY_HEADER);//这个错误不会发生
+			LOG.warn("SKIP " + targetUrl + " because it header has " + PROXY_HEADER);
 			return false;
 		}
 
+		if (!req.isAsyncSupported()) {
+			return service(req, rep, targetUrl);
+		}
+
+		new ProxyExchange(req, rep, HOP_HEADERS, TargetStats.of(hostPort(targetUrl))).send(httpClient(), proxyUri(req, targetUrl), Rpcs.ctx().getDeadline());
+		return true;
+	}
+
+	private HttpClient httpClient() throws ServletException {
+		if (httpClient == null) {
+			synchronized (this) {
+				if (httpClient == null) {
+					QueuedThreadPool executor = new QueuedThreadPool();
+					executor.setName("jcoder-proxy");
+					executor.setDaemon(true);
+					HttpClient client = new HttpClient(new SslContextFactory());
+					client.setExecutor(executor);
+					client.setScheduler(new ScheduledExecutorScheduler("jcoder-proxy-scheduler", true));
+					client.setFollowRedirects(false);
+					client.setMaxConnectionsPerDestination(256);
+					client.setIdleTimeout(TimeUnit.MINUTES.toMillis(5));
+					try {
+						client.start();
+					} catch (Exception e) {
+						throw new ServletException("start proxy http client err", e);
+					}
+					httpClient = client;
+				}
+			}
+		}
+		return httpClient;
+	}
+
+	/**
+	 * 停止异步代理的httpclient
+	 */
+	public synchronized void close() {
+		if (httpClient != null) {
+			try {
+				httpClient.stop();
+			} catch (Exception e) {
+				LOG.warn("stop proxy http client err", e);
+			}
+			httpClient = null;
+		}
+	}
+
+	/**
+	 * 去掉地址中的协议部分
+	 */
+	private static String hostPort(String targetUrl) {
+		int index = targetUrl.indexOf("://");
+		return index > -1 ? targetUrl.substring(index + 3) : targetUrl;
+	}
+
+	/**
+	 * 拼接代理的目标地址
+	 */
+	private String proxyUri(HttpServletRequest req, String targetUrl) {
 		StringBuilder uri = new StringBuilder();
 
 		uri.append(targetUrl);
@@ -166,14 +260,40 @@ public class ProxyService {
 			uri.append('?');
 			uri.append(encodeUriQuery(queryString, false));
 		}
+		return uri.toString();
+	}
 
-		Request request = Request.create(uri.toString(), Request.METHOD.valueOf(req.getMethod()), new HashMap<>(), makeHeader(req));
+	/**
+	 * 执行请求
+	 *
+	 * @return true 代表经过代理，false代表不需要代理
+	 */
+	public boolean service(HttpServletRequest req, HttpServletResponse rep, String targetUrl)
+			throws ServletException, IOException {
+
+		if (req.getHeader(PROXY_HEADER) != null) {
+			LOG.warn("SKIP " + targetUrl + " because it header has " + PROXY_HEADER);//这个错误不会发生
+			return false;
+		}
+
+		Deadline deadline = Rpcs.ctx().getDeadline();
+
+		Request request = Request.create(proxyUri(req, targetUrl), Request.METHOD.valueOf(req.getMethod()), new HashMap<>(), makeHeader(req, deadline));
 
 		if (req.getInputStream() != null) {
 			request.setInputStream(req.getInputStream());
 		}
 
-		Response response = Sender.create(request, -1).send();
+		TargetStats stats = TargetStats.of(hostPort(targetUrl));
+		long start = stats.start();
+		Response response;
+		try {
+			response = Sender.create(request, deadline.isBounded() ? (int) Math.min(Integer.MAX_VALUE, Math.max(1, deadline.remaining())) : -1).send();
+		} catch (RuntimeException e) {
+			stats.end(start, false);
+			throw e;
+		}
+		stats.end(start, response.getStatus() < 500);
 
 
 		Header header = response.getHeader();
@@ -190,16 +310,22 @@ public class ProxyService {
 	}
 
 	/**
-	 * 构建请求头
+	 * 构建请求头, 截止时间替换为剩余的毫秒数
 	 */
-	private Header makeHeader(HttpServletRequest req) {
+	private Header makeHeader(HttpServletRequest req, Deadline deadline) {
 		Enumeration<String> headerNames = req.getHeaderNames();
 		Header header = Header.create();
 		while (headerNames.hasMoreElements()) {
 			String key = headerNames.nextElement();
+			if (DEADLINE_HEADER.equalsIgnoreCase(key)) {
+				continue;
+			}
 			header.set(key, req.getHeader(key));
 		}
 		header.set(PROXY_HEADER, "true");
+		if (deadline.isBounded()) {
+			header.set(DEADLINE_HEADER, deadline.toHeader());
+		}
 		return header;
 	}
 
@@ -228,108 +354,147 @@ public class ProxyService {
 	}
 
 	/**
-	 * 同时向多个主机提交
+	 * 同时向多个主机提交, 等待所有主机返回或超时
 	 */
 	public Map<String, Restful> post(Set<String> hostPorts, String path, Map<String, Object> params, int timeout) throws Exception {
-
 		if (hostPorts.size() == 0) {
 			return new HashMap<>();
 		}
+		return fanOut(hostPorts, hostPort -> postAsync(hostPort, path, params, timeout), e -> Restful.instance(false, "请求异常：" + e.getMessage())).get();
+	}
 
-		String token = getOrCreateToken();
-
-		final String fToken = token;
+	/**
+	 * 异步向一个主机提交, timeout 为整个请求的截止时间, 超时或者取消时会中断请求线程
+	 */
+	public CompletableFuture<Restful> postAsync(String hostPort, String path, Map<String, Object> params, int timeout) {
+		return submit(() -> {
+			LOG.info("post url : http://" + hostPort + path);
+			Response send = Sender.create(Request.create("http://" + hostPort + path, Request.METHOD.POST, params, Header.create(ImmutableMap.of(UserConstants.CLUSTER_TOKEN_HEAD, getOrCreateToken())))).setTimeout(timeout).setConnTimeout(timeout).send();
+			return Restful.instance(send);
+		}, timeout);
+	}
 
-		List<String> urlList = new ArrayList<>(hostPorts);
+	/**
+	 * 同时向多个主机提交, 当已返回的结果满足quorum时立即完成并取消还未返回的请求
+	 *
+	 * @param quorum 传入当前已返回的结果, 返回true则不再等待其他主机
+	 * @return 已返回主机的结果, 失败或超时的主机为ok=false
+	 */
+	public CompletableFuture<Map<String, Restful>> postQuorum(Collection<String> hostPorts, String path, Map<String, Object> params, int timeout, Predicate<Map<String, Restful>> quorum) {
+		return fanOut(hostPorts, hostPort -> postAsync(hostPort, path, params, timeout), e -> Restful.instance(false, "请求异常：" + e.getMessage()), quorum);
+	}
 
-		Map<String, Restful> result = new LinkedHashMap<>();
+	/**
+	 * 同时向多个主机提交
+	 */
+	public Map<String, String> upload(Set<String> hostPorts, String path, Map<String, Object> params, int timeout) throws Exception {
+		if (hostPorts.size() == 0) {
+			return new HashMap<>();
+		}
+		return fanOut(hostPorts, hostPort -> submit(() -> {
+			LOG.info("post url : http://" + hostPort + path);
+			return Http.upload("http://" + hostPort + path, params, Header.create(ImmutableMap.of(UserConstants.CLUSTER_TOKEN_HEAD, getOrCreateToken())), timeout).getContent();
+		}, timeout), e -> Restful.instance(false, "请求异常：" + e.getMessage()).toJsonString()).get();
+	}
 
-		ExecutorService threadPool = null;
+	/**
+	 * 在共享线程池中执行, 开始执行后超过timeout毫秒future以TimeoutException结束并中断执行线程
+	 */
+	static <T> CompletableFuture<T> submit(Callable<T> call, int timeout) {
+		CompletableFuture<T> cf = new CompletableFuture<>();
+		Future<?> task;
 		try {
-			threadPool = Executors.newFixedThreadPool(urlList.size());
-
-			BlockingQueue<Future<Restful>> queue = new LinkedBlockingQueue<>(urlList.size());
-
-			for (String hostPort : urlList) {
-				Future<Restful> future = threadPool.submit(() -> {
-					LOG.info("post url : http://" + hostPort + path);
-					try {
-						Response send = Sender.create(Request.create("http://" + hostPort + path, Request.METHOD.POST, params, Header.create(ImmutableMap.of(UserConstants.CLUSTER_TOKEN_HEAD, fToken)))).setTimeout(timeout).setConnTimeout(timeout).send();
-						return Restful.instance(send);
-					} catch (Exception e) {
-						LOG.error("post to url : http://" + hostPort + path + " error ", e);
-						return Restful.instance(false, "请求异常：" + e.getMessage());
+			task = FAN_OUT_POOL.submit(() -> {
+				if (cf.isDone()) { //排队时已经被取消
+					return;
+				}
+				// 从开始执行计时, 线程池繁忙时在队列中等待的时间不算在内
+				ScheduledFuture<?> deadline = timeout > 0 ? DEADLINE_TIMER.schedule(() -> cf.completeExceptionally(new TimeoutException("timeout " + timeout + "ms")), timeout, TimeUnit.MILLISECONDS) : null;
+				try {
+					cf.complete(call.call());
+				} catch (Throwable e) {
+					cf.completeExceptionally(e);
+				} finally {
+					if (deadline != null) {
+						deadline.cancel(false);
 					}
-				});
-				queue.add(future);
-			}
-
-
-			for (int i = 0; i < urlList.size(); i++) {
-				result.put(urlList.get(i), queue.take().get());
-			}
-		} finally {
-			if (threadPool != null) {
-				threadPool.shutdown();
-			}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			cf.completeExceptionally(e);
+			return cf;
 		}
-
-		return result;
-
+		cf.whenComplete((r, e) -> {
+			if (e != null) { //超时或者被取消,中断还在执行的请求
+				task.cancel(true);
+			}
+		});
+		return cf;
 	}
 
-
 	/**
-	 * 同时向多个主机提交
+	 * 并发执行并合并结果, 所有主机返回后按照传入的顺序完成, 取消返回的future时同时取消还未返回的请求
+	 *
+	 * @param fail 将异常转换为结果
 	 */
-	public Map<String, String> upload(Set<String> hostPorts, String path, Map<String, Object> params, int timeout) throws Exception {
-
-		String token = getOrCreateToken();
-
-		final String fToken = token;
-
-		List<String> urlList = new ArrayList<>(hostPorts);
-
-		Map<String, String> result = new LinkedHashMap<>();
-
-		ExecutorService threadPool = null;
-		try {
-			threadPool = Executors.newFixedThreadPool(urlList.size());
+	static <T> CompletableFuture<Map<String, T>> fanOut(Collection<String> hostPorts, Function<String, CompletableFuture<T>> call, Function<Throwable, T> fail) {
+		return fanOut(hostPorts, call, fail, null);
+	}
 
-			BlockingQueue<Future<String>> queue = new LinkedBlockingQueue<Future<String>>(urlList.size());
+	/**
+	 * 并发执行并合并结果, 已返回的结果满足quorum时提前完成并取消还未返回的请求
+	 *
+	 * @param fail   将异常转换为结果
+	 * @param quorum 为null时等待所有主机
+	 */
+	static <T> CompletableFuture<Map<String, T>> fanOut(Collection<String> hostPorts, Function<String, CompletableFuture<T>> call, Function<Throwable, T> fail, Predicate<Map<String, T>> quorum) {
+		CompletableFuture<Map<String, T>> result = new CompletableFuture<>();
+		Map<String, CompletableFuture<T>> futures = new LinkedHashMap<>();
+		Map<String, T> done = new LinkedHashMap<>();
+
+		if (hostPorts.isEmpty()) {
+			result.complete(done);
+			return result;
+		}
 
-			for (String hostPort : urlList) {
-				Future<String> future = threadPool.submit(() -> {
-					LOG.info("post url : http://" + hostPort + path);
-					String content = null;
-					try {
-						Response send = Http.upload("http://" + hostPort + path, params, Header.create(ImmutableMap.of(UserConstants.CLUSTER_TOKEN_HEAD, fToken)), timeout);
-						content = send.getContent();
-					} catch (Exception e) {
-						LOG.error("post to url : http://" + hostPort + path + " error ", e);
+		for (String hostPort : hostPorts) {
+			futures.put(hostPort, call.apply(hostPort));
+		}
 
-						content = Restful.instance(false, "请求异常：" + e.getMessage()).toJsonString();
+		futures.forEach((hostPort, future) -> future.whenComplete((r, e) -> {
+			Map<String, T> snapshot = null;
+			synchronized (done) {
+				if (result.isDone()) {
+					return;
+				}
+				if (e != null) {
+					Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+					LOG.error("post to url : http://" + hostPort + " error ", cause);
+					done.put(hostPort, fail.apply(cause));
+				} else {
+					done.put(hostPort, r);
+				}
+				if (done.size() == futures.size()) {
+					snapshot = new LinkedHashMap<>();
+					for (String hp : futures.keySet()) { //按照传入的顺序
+						snapshot.put(hp, done.get(hp));
 					}
-					return content;
-				});
-				queue.add(future);
-			}
-
-
-			for (int i = 0; i < urlList.size(); i++) {
-				result.put(urlList.get(i), queue.take().get());
+				} else if (quorum != null && quorum.test(Collections.unmodifiableMap(done))) {
+					snapshot = new LinkedHashMap<>(done);
+				}
 			}
-		} finally {
-			if (threadPool != null) {
-				threadPool.shutdown();
+			if (snapshot != null) {
+				result.complete(snapshot);
 			}
-		}
+		}));
 
-		return result;
+		result.whenComplete((r, e) -> { //提前完成或者被取消时取消还未返回的请求, 已经完成的不受影响
+			futures.values().forEach(f -> f.cancel(true));
+		});
 
+		return result;
 	}
 
-
 	/**
 	 * 获取一个token
 	 */
@@ -358,25 +523,87 @@ public class ProxyService {
 	 * @return 保护http。。。地址的
 	 */
 	public String host(String path) {
-		String[] split = path.split("/");
-		if (split.length < 5) {
+		return host(path, null, 0);
+	}
+
+	/**
+	 * 传入路径，在路径中寻找合适运行此方法的主机
+	 *
+	 * @param affinityKey 不为空时通过一致性hash选择主机
+	 * @param load        一致性hash的有界负载系数
+	 */
+	public String host(String path, String affinityKey, double load) {
+		ApiRoute route = ApiRoute.parse(path);
+		if (route == null) {
 			LOG.error(path + " not match any class it must /api/[groupName]/[className]/[methodName]");
 			return null;
 		}
 
-		String groupName = split[2];
-		String className = split[3];
-		String methodName = split[4];
-
-		return host(groupName, className, methodName);
+		return host(route.getGroupName(), route.getClassName(), route.getMethodName(), affinityKey, load);
 
 	}
 
 
+	/**
+	 * 获得group配置的负载均衡策略, 没有配置时为按权重随机
+	 */
+	public Balancer balancer(String groupName) {
+		ZKMap<String> balanceCache = StaticValue.space().getBalanceCache();
+		return Balancers.of(balanceCache == null ? null : balanceCache.get(groupName));
+	}
+
 	/**
 	 * 传入一个地址，给出路由到的地址，如果返回空则为本机，未找到或其他情况也保留于本机
 	 */
 	public String host(String groupName, String className, String mehtodName) {
+		return host(groupName, className, mehtodName, null, 0);
+	}
+
+	private HashRing ring(String key, List<HostGroup> hosts) {
+		List<String> members = HashRing.members(hosts);
+		HashRing ring = rings.get(key);
+		if (ring == null || !ring.sameMembers(members)) {
+			ring = new HashRing(hosts);
+			rings.put(key, ring);
+		}
+		return ring;
+	}
+
+	/**
+	 * group所有同步主机的一致性hash环, 缓存到主机加入离开或者同步状态变化
+	 */
+	public HashRing ring(String groupName) {
+		HashRing ring = rings.get(groupName);
+		if (ring == null) {
+			GroupService groupService = StaticValue.getSystemIoc().get(GroupService.class, "groupService");
+			ring = new HashRing(groupService.getCurrentHostGroup(groupName).stream().filter(h -> h.getWeight() > 0).collect(Collectors.toList()));
+			rings.put(groupName, ring);
+		}
+		return ring;
+	}
+
+	/**
+	 * host_group变化时调用, 主机是否在group的环中发生变化时清除, 定时上报的负载不影响
+	 *
+	 * @param hostGroup 离开时为null
+	 */
+	public void onHostGroup(String groupName, String hostPort, HostGroup hostGroup) {
+		HashRing ring = rings.get(groupName);
+		if (ring == null) {
+			return;
+		}
+		boolean member = hostGroup != null && hostGroup.isCurrent() && hostGroup.getWeight() > 0;
+		if (ring.contains(hostPort) != member) {
+			rings.remove(groupName, ring);
+		}
+	}
+
+	/**
+	 * 传入一个地址，给出路由到的地址，如果返回空则为本机，未找到或其他情况也保留于本机
+	 *
+	 * @param affinityKey 不为空时通过一致性hash选择主机, 否则使用group的负载均衡策略
+	 */
+	public String host(String groupName, String className, String mehtodName, String affinityKey, double load) {
 
 		Map<String, ChildData> currentChildren = null;
 
@@ -395,7 +622,6 @@ public class ProxyService {
 
 		List<HostGroup> hosts = new ArrayList<>();
 
-		int sum = 0;
 		for (Map.Entry<String, ChildData> entry : currentChildren.entrySet()) {
 
 			String hostPort = entry.getKey();
@@ -412,7 +638,6 @@ public class ProxyService {
 				LOG.debug(HOST_GROUP_PATH + "/" + hostPort + "_" + groupName + " weight less than zero , so skip");
 				continue;
 			}
-			sum += weight;
 			hosts.add(hostGroup);
 		}
 
@@ -421,18 +646,20 @@ public class ProxyService {
 			return null;
 		}
 
-		int random = new Random().nextInt(sum);
+		HostGroup hostGroup;
+		if (affinityKey != null) {
+			hostGroup = ring(groupName + "/" + className + "/" + mehtodName, hosts).choose(affinityKey, load);
+		} else {
+			hostGroup = balancer(groupName).choose(hosts);
+		}
 
-		for (HostGroup hostGroup : hosts) {
-			random -= hostGroup.getWeight();
-			if (random < 0) {
-				if (StaticValue.getHostPort().equals(hostGroup.getHostPort())) { //by self
-					return null;
-				}
-				String toHost = (hostGroup.isSsl() ? "https://" : "http://") + hostGroup.getHostPort();
-				LOG.info("{}/{}/{} proxy to {} ", groupName, className, mehtodName, toHost);
-				return toHost;
+		if (hostGroup != null) {
+			if (StaticValue.getHostPort().equals(hostGroup.getHostPort())) { //by self
+				return null;
 			}
+			String toHost = (hostGroup.isSsl() ? "https://" : "http://") + hostGroup.getHostPort();
+			LOG.info("{}/{}/{} proxy to {} ", groupName, className, mehtodName, toHost);
+			return toHost;
 		}
 
 		LOG.info("this log impossible print !");
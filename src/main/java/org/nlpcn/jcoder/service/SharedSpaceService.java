@@ -5,6 +5,7 @@ import com.alibaba.fastjson.JSONObject;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
 import org.apache.curator.framework.recipes.leader.LeaderLatch;
 import org.apache.curator.framework.recipes.leader.LeaderLatchListener;
 import org.apache.curator.framework.recipes.locks.InterProcessMutex;
@@ -22,6 +23,7 @@ import org.nlpcn.jcoder.domain.HostGroupWatcher;
 import org.nlpcn.jcoder.domain.Task;
 import org.nlpcn.jcoder.domain.Token;
 import org.nlpcn.jcoder.job.CheckDiffJob;
+import org.nlpcn.jcoder.run.java.WarmUp;
 import org.nlpcn.jcoder.job.MasterCleanTokenJob;
 import org.nlpcn.jcoder.job.MasterRunTaskJob;
 import org.nlpcn.jcoder.job.MasterTaskCheckJob;
@@ -29,6 +31,7 @@ import org.nlpcn.jcoder.run.rpc.service.MemoryRoomService;
 import org.nlpcn.jcoder.run.rpc.service.RoomService;
 import org.nlpcn.jcoder.run.rpc.service.ZookeeperRoomService;
 import org.nlpcn.jcoder.scheduler.QuartzSchedulerManager;
+import org.nlpcn.jcoder.scheduler.ShardedScheduler;
 import org.nlpcn.jcoder.util.StaticValue;
 import org.nlpcn.jcoder.util.StringUtil;
 import org.nlpcn.jcoder.util.ZKMap;
@@ -94,6 +97,24 @@ public class SharedSpaceService {
 	 */
 	private static final String LOCK_PATH = StaticValue.ZK_ROOT + "/lock";
 
+	/**
+	 * 每个group的负载均衡策略
+	 * /jcoder/balance/[groupName],[balancer]
+	 */
+	public static final String BALANCE_PATH = StaticValue.ZK_ROOT + "/balance";
+
+	/**
+	 * 共享的api缓存
+	 * /jcoder/cache/[groupName]/[className]/[methodName]/[version]/[keyHash]
+	 */
+	public static final String CACHE_PATH = StaticValue.ZK_ROOT + "/cache";
+
+	/**
+	 * 集群共享的编译结果
+	 * /jcoder/bytecode/[groupName]/[className]/[key]
+	 */
+	public static final String BYTECODE_PATH = StaticValue.ZK_ROOT + "/bytecode";
+
     /**
 	 * 日志统计ZNODE
 	 */
@@ -127,6 +148,9 @@ public class SharedSpaceService {
 	//缓存在线主机 key:127.0.0.1:2181_groupName HostGroup.java
 	private ZKMap<HostGroup> hostGroupCache;
 
+	//group的负载均衡策略 key:groupName
+	private ZKMap<String> balanceCache;
+
 	/**
 	 * 在线groupcache
 	 */
@@ -341,7 +365,9 @@ public class SharedSpaceService {
 					StaticValue.setMaster(true);
 					LOG.info("I am master my host is " + StaticValue.getHostPort());
 					try {
-						QuartzSchedulerManager.startScheduler();
+						if (!StaticValue.SCHEDULE_SHARDED) { //分片模式每个节点都有自己的调度器
+							QuartzSchedulerManager.startScheduler();
+						}
 						MasterTaskCheckJob.startJob();
 						MasterRunTaskJob.startJob();
 						MasterCleanTokenJob.startJob();
@@ -355,7 +381,9 @@ public class SharedSpaceService {
 					StaticValue.setMaster(false);
 					LOG.info("I am lost master " + StaticValue.getHostPort());
 					try {
-						QuartzSchedulerManager.stopScheduler();
+						if (!StaticValue.SCHEDULE_SHARDED) {
+							QuartzSchedulerManager.stopScheduler();
+						}
 					} catch (SchedulerException e) {
 						e.printStackTrace();
 					}
@@ -385,6 +413,10 @@ public class SharedSpaceService {
 				zkDao.getZk().create().creatingParentsIfNeeded().forPath(HOST_PATH);
 			}
 
+			if (zkDao.getZk().checkExists().forPath(BALANCE_PATH) == null) {
+				zkDao.getZk().create().creatingParentsIfNeeded().forPath(BALANCE_PATH);
+			}
+
 			if (zkDao.getZk().checkExists().forPath(LOG_STATS_PATH) == null) {
 				zkDao.getZk().create().creatingParentsIfNeeded().forPath(LOG_STATS_PATH);
 			}
@@ -401,8 +433,41 @@ public class SharedSpaceService {
 			 */
 			hostGroupCache = new ZKMap(zkDao.getZk(), HOST_GROUP_PATH, HostGroup.class).start();
 
+			hostGroupCache.getListenable().addListener((client, event) -> { //主机上报状态或者离开group后由master对比
+				if (StaticValue.SCHEDULE_SHARDED && event.getData() != null && event.getData().getPath().length() > HOST_GROUP_PATH.length()) { //主机加入离开或者同步状态变化后重新分片
+					String key = event.getData().getPath().substring(HOST_GROUP_PATH.length() + 1);
+					ShardedScheduler.onHostGroup(key, event.getType() == TreeCacheEvent.Type.NODE_REMOVED ? null : hostGroupCache.get(key));
+				}
+				if (event.getData() != null && event.getData().getPath().length() > HOST_GROUP_PATH.length()) { //共享缓存使用的hash环
+					String key = event.getData().getPath().substring(HOST_GROUP_PATH.length() + 1);
+					String[] split = key.split("_");
+					if (split.length >= 2) {
+						StaticValue.getSystemIoc().get(ProxyService.class, "proxyService").onHostGroup(split[1], split[0], event.getType() == TreeCacheEvent.Type.NODE_REMOVED ? null : hostGroupCache.get(key));
+					}
+				}
+				if (event.getData() != null && StaticValue.isMaster()) {
+					String path = event.getData().getPath();
+					if (path.length() <= HOST_GROUP_PATH.length()) {
+						return;
+					}
+					String[] split = path.substring(HOST_GROUP_PATH.length() + 1).split("_");
+					if (split.length < 2) {
+						return;
+					}
+					if (event.getType() == TreeCacheEvent.Type.NODE_REMOVED) {
+						LOG.info("host {} left group {}", split[0], split[1]);
+						MasterRunTaskJob.forget(split[0], split[1]);
+					}
+					MasterTaskCheckJob.addQueue(new Handler(path, split[1], null, event.getType()));
+				}
+			});
+
 			joinCluster();
 
+			if (StaticValue.SCHEDULE_SHARDED) {
+				ShardedScheduler.start();
+			}
+
 			setData2ZKByEphemeral(HOST_PATH + "/" + StaticValue.getHostPort(), new byte[0], new Watcher() {
 				@Override
 				public void process(WatchedEvent event) {
@@ -425,6 +490,11 @@ public class SharedSpaceService {
 			 */
 			tokenCache = new ZKMap(zkDao.getZk(), TOKEN_PATH, Token.class).start();
 
+			/**
+			 * 负载均衡策略
+			 */
+			balanceCache = new ZKMap(zkDao.getZk(), BALANCE_PATH, String.class).start();
+
 			groupCache.getListenable().addListener((client, event) -> { //广播监听group目录
 				LOG.info("found group change type:{} path:{}", event.getType(), event.getData() == null ? "" : event.getData().getPath());
 				if (event.getData() != null) {
@@ -443,6 +513,10 @@ public class SharedSpaceService {
 							}
 							String taskName = split[1];
 
+							if (StaticValue.SCHEDULE_SHARDED && !"file".equals(taskName)) {
+								ShardedScheduler.schedule();
+							}
+
 							if (StaticValue.isMaster() && !"file".equals(taskName)) {//如果本机是master,并且更新的是task
 								MasterTaskCheckJob.addQueue(new Handler(event.getData().getPath(), groupName, taskName, event.getType()));
 							}
@@ -503,6 +577,7 @@ public class SharedSpaceService {
 			Optional.of(mappingCache).ifPresent((o) -> closeWithoutException(o));
 			Optional.of(tokenCache).ifPresent((o) -> closeWithoutException(o));
 			Optional.of(hostGroupCache).ifPresent((o) -> closeWithoutException(o));
+			Optional.ofNullable(balanceCache).ifPresent((o) -> closeWithoutException(o));
 			Optional.of(zkDao).ifPresent((o) -> closeWithoutException(o));
 			Optional.of(roomService).ifPresent((o) -> closeWithoutException(o));
 		} finally {
@@ -693,11 +768,13 @@ public class SharedSpaceService {
 
 		CheckDiffJob.addDiff(groupName, diffs);//注册到定时任务的监控
 
-		if (upHostGroup || cHostGroup == null || (diffs.size() > 0 && cHostGroup.isCurrent())) {
+		boolean ready = diffs.size() == 0 && !WarmUp.isWarming(groupName); //预热中的group不接收流量
+
+		if (upHostGroup || cHostGroup == null || (!ready && cHostGroup.isCurrent())) {
 			HostGroup hostGroup = new HostGroup();
 			hostGroup.setSsl(StaticValue.IS_SSL);
-			hostGroup.setCurrent(diffs.size() == 0);
-			hostGroup.setWeight(diffs.size() > 0 ? 0 : 100);
+			hostGroup.setCurrent(ready);
+			hostGroup.setWeight(ready ? 100 : 0);
 			hostGroup.setHostPort(StaticValue.getHostPort());
 			Watcher watcher = null;
 			if (cHostGroup == null) {
@@ -891,6 +968,10 @@ public class SharedSpaceService {
 		return hostGroupCache;
 	}
 
+	public ZKMap<String> getBalanceCache() {
+		return balanceCache;
+	}
+
 	public TreeCache getGroupCache() {
 		return groupCache;
 	}
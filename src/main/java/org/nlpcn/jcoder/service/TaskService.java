@@ -12,6 +12,9 @@ import org.nlpcn.jcoder.domain.CodeInfo.ExecuteMethod;
 import org.nlpcn.jcoder.filter.TestingFilter;
 import org.nlpcn.jcoder.run.CodeException;
 import org.nlpcn.jcoder.run.java.JavaRunner;
+import org.nlpcn.jcoder.run.java.WarmUp;
+import org.nlpcn.jcoder.run.mvc.cache.CacheEntry;
+import org.nlpcn.jcoder.run.mvc.limit.Limiter;
 import org.nlpcn.jcoder.scheduler.TaskRunManager;
 import org.nlpcn.jcoder.util.*;
 import org.nlpcn.jcoder.util.dao.BasicDao;
@@ -486,6 +489,17 @@ public class TaskService {
 		synchronized (oldTask) {
 			synchronized (newTask) {
 
+				// api在旧版本继续服务的同时编译预热新版本, 失败时按原方式停止后重新加载
+				boolean reload = TaskRunManager.reloadable(oldTask, newTask);
+				if (reload) {
+					try {
+						WarmUp.prepare(newTask);
+					} catch (Exception e) {
+						LOG.error("prepare {}/{} err so stop old version", newTask.getGroupName(), newTask.getName(), e);
+						reload = false;
+					}
+				}
+
 				TASK_MAP_CACHE.remove(oldTask.getId());
 				TASK_MAP_CACHE.remove(makeKey(oldTask));
 
@@ -495,7 +509,11 @@ public class TaskService {
 				clearSucessErr(oldTask);
 				clearSucessErr(newTask);
 
-				TaskRunManager.flush(oldTask, newTask);
+				if (reload) {
+					TaskRunManager.reload(oldTask, newTask);
+				} else {
+					TaskRunManager.flush(oldTask, newTask);
+				}
 			}
 		}
 	}
@@ -550,34 +568,41 @@ public class TaskService {
 	}
 
 	/**
-	 * 从数据库中init所有的task
+	 * 从数据库中init所有的task, 预热完成前本节点不接收这个group的流量
 	 */
 	public synchronized void flushGroup(String groupName) {
-		removeMapping(groupName); //刪除所有映射
-		createMapping(groupName); //插入所有映射
+		WarmUp.begin(groupName);
+		try {
+			removeMapping(groupName); //刪除所有映射
+			createMapping(groupName); //插入所有映射
+		} finally {
+			WarmUp.end(groupName);
+		}
 	}
 
 	private void createMapping(String groupName) {
 		List<Task> search = findTasksByGroupName(groupName);
 
 		for (Task task : search) {
+			TASK_MAP_CACHE.put(task.getId(), task);
+			TASK_MAP_CACHE.put(makeKey(task), task);
+		}
+
+		List<Task> compiled = WarmUp.compile(search);
+
+		for (Task task : compiled) {
 			try {
-				TASK_MAP_CACHE.put(task.getId(), task);
-				TASK_MAP_CACHE.put(makeKey(task), task);
-				try {
-					new JavaRunner(task).compile();
-					Collection<ExecuteMethod> executeMethods = task.codeInfo().getExecuteMethods();
-					executeMethods.forEach(e -> {
-						StaticValue.space().addMapping(task.getGroupName(), task.getName(), e.getMethod().getName());
-					});
-				} catch (Exception e) {
-					LOG.error("compile {}/{} err ", task.getGroupName(), task.getCode(), e);
-				}
+				Collection<ExecuteMethod> executeMethods = task.codeInfo().getExecuteMethods();
+				executeMethods.forEach(e -> {
+					StaticValue.space().addMapping(task.getGroupName(), task.getName(), e.getMethod().getName());
+				});
 			} catch (Throwable e) {
 				e.printStackTrace();
 				LOG.error(e.getMessage(), e);
 			}
 		}
+
+		WarmUp.warm(compiled);
 	}
 
 	private void removeMapping(String groupName) {
@@ -589,6 +614,8 @@ public class TaskService {
 					StaticValue.space().removeMapping(task.getGroupName(), task.getName(), m.getName());
 				});
 				StaticValue.MAPPING.remove(task.getGroupName(), task.getName());//删掉urlmapping重新加载
+				CacheEntry.remove(task.getGroupName(), task.getName());
+				Limiter.remove(task.getGroupName(), task.getName());
 				TASK_MAP_CACHE.remove(task.getId());
 				TASK_MAP_CACHE.remove(makeKey(task));
 			} catch (Throwable e) {
@@ -0,0 +1,21 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.util.List;
+
+/**
+ * 代理时选择目标主机的策略
+ *
+ * @author ansj
+ */
+public interface Balancer {
+
+	/**
+	 * 从可用主机中选择一个, hosts 中的权重都大于0
+	 *
+	 * @return 没有可选主机时返回null
+	 */
+	HostGroup choose(List<HostGroup> hosts);
+
+}
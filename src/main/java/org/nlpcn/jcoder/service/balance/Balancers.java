@@ -0,0 +1,138 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.nlpcn.jcoder.domain.HostGroup;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 内置的负载均衡策略
+ *
+ * @author ansj
+ */
+public enum Balancers implements Balancer {
+
+	/**
+	 * 按照权重随机, 默认策略
+	 */
+	RANDOM {
+		@Override
+		public HostGroup choose(List<HostGroup> hosts) {
+			return weightedRandom(hosts, null);
+		}
+	},
+
+	/**
+	 * 选择正在执行请求数最少的主机
+	 */
+	LEAST_REQUEST {
+		@Override
+		public HostGroup choose(List<HostGroup> hosts) {
+			return min(hosts, h -> TargetStats.of(h.getHostPort()).getOutstanding());
+		}
+	},
+
+	/**
+	 * 选择 peak ewma 延迟乘以请求数最小的主机
+	 */
+	PEAK_EWMA {
+		@Override
+		public HostGroup choose(List<HostGroup> hosts) {
+			return min(hosts, h -> TargetStats.of(h.getHostPort()).load());
+		}
+	},
+
+	/**
+	 * 按权重随机选出两个, 取负载较小的一个
+	 */
+	P2C {
+		@Override
+		public HostGroup choose(List<HostGroup> hosts) {
+			if (hosts.size() <= 2) {
+				return min(hosts, h -> TargetStats.of(h.getHostPort()).load());
+			}
+			HostGroup a = weightedRandom(hosts, null);
+			HostGroup b = weightedRandom(hosts, a);
+			return TargetStats.of(a.getHostPort()).load() <= TargetStats.of(b.getHostPort()).load() ? a : b;
+		}
+	};
+
+	private static final Map<String, Balancer> CUSTOM = new ConcurrentHashMap<>();
+
+	/**
+	 * 通过名称获得策略, 名称也可以是实现了Balancer的类名, 找不到时返回默认策略
+	 */
+	public static Balancer of(String name) {
+		if (name == null || name.length() == 0) {
+			return RANDOM;
+		}
+		for (Balancers b : values()) {
+			if (b.name().equalsIgnoreCase(name)) {
+				return b;
+			}
+		}
+		return CUSTOM.computeIfAbsent(name, n -> {
+			try {
+				return (Balancer) Class.forName(n).newInstance();
+			} catch (Exception e) {
+				LoggerFactory.getLogger(Balancers.class).warn("not found balancer " + n + " so use random", e);
+				return RANDOM;
+			}
+		});
+	}
+
+	private interface Score {
+		double score(HostGroup hostGroup);
+	}
+
+	/**
+	 * 按权重随机选择
+	 *
+	 * @param exclude 不参与选择的主机, 可以为null
+	 */
+	private static HostGroup weightedRandom(List<HostGroup> hosts, HostGroup exclude) {
+		int sum = 0;
+		for (HostGroup hostGroup : hosts) {
+			if (hostGroup != exclude) {
+				sum += hostGroup.getWeight();
+			}
+		}
+		if (sum <= 0) {
+			return exclude;
+		}
+		int random = ThreadLocalRandom.current().nextInt(sum);
+		for (HostGroup hostGroup : hosts) {
+			if (hostGroup == exclude) {
+				continue;
+			}
+			random -= hostGroup.getWeight();
+			if (random < 0) {
+				return hostGroup;
+			}
+		}
+		return exclude;
+	}
+
+	/**
+	 * 取得分最小的主机, 相同得分随机选择
+	 */
+	private static HostGroup min(List<HostGroup> hosts, Score score) {
+		HostGroup best = null;
+		double min = Double.MAX_VALUE;
+		int ties = 0;
+		for (HostGroup hostGroup : hosts) {
+			double s = score.score(hostGroup);
+			if (s < min) {
+				min = s;
+				best = hostGroup;
+				ties = 1;
+			} else if (s == min && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+				best = hostGroup;
+			}
+		}
+		return best;
+	}
+}
@@ -0,0 +1,117 @@
+package org.nlpcn.jcoder.service.balance;
+
+import com.google.common.collect.Iterables;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 一致性hash环, 主机增减时只有相邻区间的key会迁移.
+ * 选择时使用有界负载, 超过平均负载 load 倍的主机会顺延到环上的下一个主机
+ *
+ * @author ansj
+ */
+public class HashRing {
+
+	private static final HashFunction HASH = Hashing.murmur3_32();
+
+	// 每个主机的虚拟节点数
+	private static final int REPLICAS = 160;
+
+	private final TreeMap<Integer, HostGroup> ring = new TreeMap<>();
+
+	private final List<String> members;
+
+	private final List<HostGroup> hosts;
+
+	public HashRing(List<HostGroup> hosts) {
+		this.hosts = hosts;
+		this.members = members(hosts);
+		for (HostGroup hostGroup : hosts) {
+			for (int i = 0; i < REPLICAS; i++) {
+				ring.put(hash(hostGroup.getHostPort() + "#" + i), hostGroup);
+			}
+		}
+	}
+
+	/**
+	 * 主机列表的标识, 用于判断是否需要重建
+	 */
+	public static List<String> members(List<HostGroup> hosts) {
+		List<String> list = new ArrayList<>(hosts.size());
+		for (HostGroup hostGroup : hosts) {
+			list.add(hostGroup.getHostPort() + "@" + hostGroup.isSsl());
+		}
+		Collections.sort(list);
+		return list;
+	}
+
+	public boolean sameMembers(List<String> members) {
+		return this.members.equals(members);
+	}
+
+	public boolean contains(String hostPort) {
+		for (HostGroup hostGroup : hosts) {
+			if (hostGroup.getHostPort().equals(hostPort)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int hash(String key) {
+		return HASH.hashString(key, StandardCharsets.UTF_8).asInt();
+	}
+
+	/**
+	 * 选择key所在的主机
+	 *
+	 * @param load 有界负载系数, 小于等于1时不限制
+	 */
+	public HostGroup choose(String key, double load) {
+		if (ring.isEmpty()) {
+			return null;
+		}
+
+		int hash = hash(key);
+
+		if (load <= 1) {
+			Map.Entry<Integer, HostGroup> entry = ring.ceilingEntry(hash);
+			return entry != null ? entry.getValue() : ring.firstEntry().getValue();
+		}
+
+		int total = 0;
+		for (HostGroup hostGroup : hosts) {
+			total += TargetStats.of(hostGroup.getHostPort()).getOutstanding();
+		}
+		double capacity = Math.ceil(load * (total + 1) / hosts.size());
+
+		//从hash位置开始顺时针找到第一个未超载的主机
+		HostGroup first = null;
+		Set<HostGroup> seen = new HashSet<>();
+		for (HostGroup hostGroup : Iterables.concat(ring.tailMap(hash, true).values(), ring.headMap(hash, false).values())) {
+			if (!seen.add(hostGroup)) {
+				continue;
+			}
+			if (first == null) {
+				first = hostGroup;
+			}
+			if (TargetStats.of(hostGroup.getHostPort()).getOutstanding() < capacity) {
+				return hostGroup;
+			}
+			if (seen.size() == hosts.size()) {
+				break;
+			}
+		}
+		return first;
+	}
+}
@@ -0,0 +1,126 @@
+package org.nlpcn.jcoder.service.balance;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 每个目标主机的请求统计, 由代理请求收集, 供负载均衡策略使用
+ *
+ * @author ansj
+ */
+public class TargetStats {
+
+	private static final Map<String, TargetStats> STATS = new ConcurrentHashMap<>();
+
+	// ewma 衰减时间
+	private static final double TAU = TimeUnit.SECONDS.toNanos(10);
+
+	// 没有延迟数据但是有请求在执行时的惩罚值
+	private static final double PENALTY = TimeUnit.SECONDS.toNanos(1);
+
+	private final String hostPort;
+
+	// 正在执行的请求数
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	private final AtomicLong success = new AtomicLong();
+
+	private final AtomicLong fail = new AtomicLong();
+
+	// peak ewma 延迟, 纳秒
+	private double cost = 0;
+
+	private long stamp = System.nanoTime();
+
+	private TargetStats(String hostPort) {
+		this.hostPort = hostPort;
+	}
+
+	public static TargetStats of(String hostPort) {
+		return STATS.computeIfAbsent(hostPort, TargetStats::new);
+	}
+
+	public static Map<String, TargetStats> all() {
+		return STATS;
+	}
+
+	/**
+	 * 请求开始
+	 *
+	 * @return 开始时间, 结束时传回
+	 */
+	public long start() {
+		outstanding.incrementAndGet();
+		return System.nanoTime();
+	}
+
+	/**
+	 * 请求结束
+	 */
+	public void end(long start, boolean ok) {
+		outstanding.decrementAndGet();
+		if (ok) {
+			success.incrementAndGet();
+		} else {
+			fail.incrementAndGet();
+		}
+		observe(System.nanoTime() - start);
+	}
+
+	private synchronized void observe(long rtt) {
+		long now = System.nanoTime();
+		if (rtt > cost) { //peak 直接取最大值
+			cost = rtt;
+		} else {
+			double w = Math.exp(-(now - stamp) / TAU);
+			cost = cost * w + rtt * (1 - w);
+		}
+		stamp = now;
+	}
+
+	/**
+	 * 当前衰减后的延迟
+	 */
+	public synchronized double ewma() {
+		double w = Math.exp(-(System.nanoTime() - stamp) / TAU);
+		return cost * w;
+	}
+
+	/**
+	 * peak ewma 的负载评分, 越小越好
+	 */
+	public double load() {
+		int active = outstanding.get();
+		double latency = ewma();
+		if (latency == 0 && active > 0) {
+			return PENALTY + active;
+		}
+		return latency * (active + 1);
+	}
+
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	public long getSuccess() {
+		return success.get();
+	}
+
+	public long getFail() {
+		return fail.get();
+	}
+
+	public String getHostPort() {
+		return hostPort;
+	}
+
+	/**
+	 * 衰减后的延迟, 毫秒
+	 */
+	public double getLatency() {
+		return ewma() / 1000000D;
+	}
+}
@@ -0,0 +1,151 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Function;
+
+/**
+ * master 为task选择执行的主机, 选择负载最小且满足反亲和的同步主机.
+ * 负载来自主机定时上报到host_group的数据, 上报之前master已经分配的task也计入负载
+ *
+ * @author ansj
+ */
+public class TaskPlacement {
+
+	// 每个执行中的task记1分, cpu和堆内存满载时各记这么多分
+	private static final double CPU_WEIGHT = 4;
+
+	private static final double HEAP_WEIGHT = 4;
+
+	// 同一个task已经在这台主机上时增加的分数, 尽量分散
+	private static final double SAME_TASK = 1;
+
+	// 分配记录最长保留的毫秒数, 主机一直没有上报时不再计入
+	private static final long ASSIGN_TTL = 60000L;
+
+	// 已经分配但是主机还没有上报的task, key:hostPort
+	private final Map<String, List<Assign>> assigned = new ConcurrentHashMap<>();
+
+	/**
+	 * 选择执行task的主机
+	 *
+	 * @param hosts        group的主机
+	 * @param groupName    组名称
+	 * @param taskName     task名称
+	 * @param antiAffinity 查询一个task声明的反亲和task名称
+	 * @return 没有合适的主机时返回null
+	 */
+	public HostGroup choose(List<HostGroup> hosts, String groupName, String taskName, Function<String, Collection<String>> antiAffinity) {
+		Collection<String> avoid = antiAffinity.apply(taskName);
+		HostGroup best = null;
+		double min = Double.MAX_VALUE;
+		int ties = 0;
+		for (HostGroup hostGroup : hosts) {
+			if (!hostGroup.isCurrent() || hostGroup.getWeight() <= 0) {
+				continue;
+			}
+			List<Assign> pending = pending(hostGroup);
+			Set<String> tasks = new HashSet<>();
+			if (hostGroup.getTasks() != null) {
+				tasks.addAll(hostGroup.getTasks());
+			}
+			for (Assign assign : pending) {
+				if (assign.groupName.equals(groupName)) {
+					tasks.add(assign.taskName);
+				}
+			}
+			if (conflict(taskName, avoid, tasks, antiAffinity)) {
+				continue;
+			}
+			double score = hostGroup.getRunningJobs() + pending.size() + hostGroup.getCpu() * CPU_WEIGHT + hostGroup.getHeap() * HEAP_WEIGHT;
+			if (tasks.contains(taskName)) {
+				score += SAME_TASK;
+			}
+			if (score < min) {
+				min = score;
+				best = hostGroup;
+				ties = 1;
+			} else if (score == min && ThreadLocalRandom.current().nextInt(++ties) == 0) {
+				best = hostGroup;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * 两边任意一方声明了反亲和都不能放在一起
+	 */
+	private boolean conflict(String taskName, Collection<String> avoid, Set<String> tasks, Function<String, Collection<String>> antiAffinity) {
+		for (String name : tasks) {
+			if (name.equals(taskName)) {
+				continue;
+			}
+			if (avoid.contains(name) || antiAffinity.apply(name).contains(taskName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * 主机上报负载之后的分配记录, 同时清理已经上报过的
+	 */
+	private List<Assign> pending(HostGroup hostGroup) {
+		List<Assign> list = assigned.get(hostGroup.getHostPort());
+		if (list == null) {
+			return Collections.emptyList();
+		}
+		long now = System.currentTimeMillis();
+		synchronized (list) {
+			list.removeIf(a -> a.time < hostGroup.getLoadTime() || now - a.time > ASSIGN_TTL);
+			return new ArrayList<>(list);
+		}
+	}
+
+	/**
+	 * 记录一次成功的分配
+	 */
+	public void assign(String hostPort, String groupName, String taskName) {
+		List<Assign> list = assigned.computeIfAbsent(hostPort, k -> new ArrayList<>());
+		synchronized (list) {
+			list.add(new Assign(groupName, taskName, System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * 主机离开group后清除它的分配记录
+	 */
+	public void forget(String hostPort, String groupName) {
+		List<Assign> list = assigned.get(hostPort);
+		if (list != null) {
+			synchronized (list) {
+				list.removeIf(a -> a.groupName.equals(groupName));
+			}
+		}
+	}
+
+	public void clear() {
+		assigned.clear();
+	}
+
+	private static class Assign {
+		private final String groupName;
+		private final String taskName;
+		private final long time;
+
+		private Assign(String groupName, String taskName, long time) {
+			this.groupName = groupName;
+			this.taskName = taskName;
+			this.time = time;
+		}
+	}
+}
@@ -34,6 +34,10 @@ public class ApiException extends ExecutionException {
 	 * 请求格式不正确
 	 */
 	public static final int UnprocessableEntity = 422;
+	/**
+	 * 请求过多, 并发和等待队列都已满
+	 */
+	public static final int TooManyRequests = 429;
 	/**
 	 * tonken不支持当前接口
 	 */
@@ -46,6 +50,14 @@ public class ApiException extends ExecutionException {
 	 * 服务器错误
 	 */
 	public static final int ServerException = 500;
+	/**
+	 * 服务不可用, 排队等待超时
+	 */
+	public static final int ServiceUnavailable = 503;
+	/**
+	 * 请求超过了调用方给定的截止时间
+	 */
+	public static final int GatewayTimeout = 504;
 	/**
 	 * 未注册
 	 */
@@ -62,6 +62,45 @@ public class StaticValue {
 	//是否是测试模式
 	public static final boolean TESTRING = Boolean.parseBoolean(getValueOrCreate("testing", "false"));
 
+	//缓存后台刷新的线程数, 整个节点共享
+	public static final int CACHE_REFRESH_THREADS = TypeUtils.castToInt(getValueOrCreate("cache_refresh_threads", "8"));
+
+	//每个group同时进行的缓存刷新上限
+	public static final int CACHE_REFRESH_GROUP_QUOTA = TypeUtils.castToInt(getValueOrCreate("cache_refresh_group_quota", "4"));
+
+	//代理请求默认的超时毫秒数, 请求没有携带截止时间时使用, 0为不限制
+	public static final int PROXY_TIMEOUT = TypeUtils.castToInt(getValueOrCreate("proxy_timeout", "60000"));
+
+	//启动和刷新group时并行编译预热的线程数
+	public static final int WARM_UP_THREADS = TypeUtils.castToInt(getValueOrCreate("warm_up_threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+
+	//每个group在本节点的最大并发数, 0为不限制
+	public static final int GROUP_MAX_CONCURRENCY = TypeUtils.castToInt(getValueOrCreate("group_max_concurrency", "0"));
+
+	//group并发满时最多等待的请求数
+	public static final int GROUP_MAX_QUEUE = TypeUtils.castToInt(getValueOrCreate("group_max_queue", "0"));
+
+	//group并发满时请求的最长等待毫秒数
+	public static final int LIMIT_QUEUE_TIMEOUT = TypeUtils.castToInt(getValueOrCreate("limit_queue_timeout", "1000"));
+
+	//api重新加载后等待旧版本执行中请求结束的最长毫秒数
+	public static final int RELOAD_DRAIN_TIMEOUT = TypeUtils.castToInt(getValueOrCreate("reload_drain_timeout", "30000"));
+
+	//每个group执行定时任务的线程数
+	public static final int TASK_THREADS = TypeUtils.castToInt(getValueOrCreate("task_threads", "8"));
+
+	//每个group等待执行的定时任务上限, 超过时拒绝
+	public static final int TASK_QUEUE_SIZE = TypeUtils.castToInt(getValueOrCreate("task_queue_size", "1000"));
+
+	//每个group同时执行的while和一次性任务上限, 超过时拒绝
+	public static final int TASK_LONG_THREADS = TypeUtils.castToInt(getValueOrCreate("task_long_threads", "32"));
+
+	//主机上报负载到host_group的间隔毫秒数
+	public static final int HOST_LOAD_INTERVAL = TypeUtils.castToInt(getValueOrCreate("host_load_interval", "5000"));
+
+	//定时任务按一致性hash分片到各个节点本地触发, 不经过master, 集群中所有节点必须一致
+	public static final boolean SCHEDULE_SHARDED = Boolean.parseBoolean(getValueOrCreate("schedule_sharded", "false"));
+
 	public static BasicDao systemDao; // 系统DAO
 
 	//启动jcoderjar所在的文件，如果源码方式则为null
@@ -3,7 +3,9 @@ package org.nlpcn.jcoder.util;
 import com.alibaba.fastjson.JSONObject;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.listen.Listenable;
 import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
 
 import java.io.Closeable;
 import java.util.*;
@@ -131,6 +133,13 @@ public class ZKMap<V> implements Closeable {
 		return this;
 	}
 
+	/**
+	 * 监听节点的变化
+	 */
+	public Listenable<TreeCacheListener> getListenable() {
+		return treeCache.getListenable();
+	}
+
 	@Override
 	public void close() {
 		treeCache.close();
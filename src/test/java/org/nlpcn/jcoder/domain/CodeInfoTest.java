@@ -0,0 +1,57 @@
+package org.nlpcn.jcoder.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Collections;
+
+public class CodeInfoTest {
+
+	public static class Demo {
+		public String hello(String name, int times) {
+			StringBuilder sb = new StringBuilder();
+			for (int i = 0; i < times; i++) {
+				sb.append(name);
+			}
+			return sb.toString();
+		}
+
+		public long widen(long value) {
+			return value + 1;
+		}
+
+		public void err() {
+			throw new IllegalStateException("err");
+		}
+	}
+
+	private CodeInfo.ExecuteMethod method(String name, Class<?>... types) throws NoSuchMethodException {
+		CodeInfo codeInfo = new CodeInfo();
+		codeInfo.addMethod(Demo.class.getMethod(name, types), Collections.emptySet(), true, true);
+		return codeInfo.getExecuteMethod(name);
+	}
+
+	@Test
+	public void invoke() throws Exception {
+		Assert.assertEquals("abab", method("hello", String.class, int.class).invoke(new Demo(), new Object[]{"ab", 2}));
+		//int -> long 需要反射做类型拓宽
+		Assert.assertEquals(2L, method("widen", long.class).invoke(new Demo(), new Object[]{1}));
+	}
+
+	@Test
+	public void invokeErr() throws Exception {
+		try {
+			method("err").invoke(new Demo(), null);
+			Assert.fail();
+		} catch (InvocationTargetException e) {
+			Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		try {
+			method("hello", String.class, int.class).invoke(new Demo(), new Object[]{"ab"});
+			Assert.fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
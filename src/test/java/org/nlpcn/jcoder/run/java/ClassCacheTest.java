@@ -0,0 +1,56 @@
+package org.nlpcn.jcoder.run.java;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+public class ClassCacheTest {
+
+	@Test
+	public void putAndGet() throws IOException {
+		ClassCache cache = new ClassCache(Files.createTempDirectory("class_cache").toFile());
+
+		String key = ClassCache.key("a.B", "package a; public class B {}", "fp", Arrays.asList("-parameters"));
+
+		Assert.assertNull(cache.get(key));
+
+		List<Map.Entry<String, byte[]>> classes = Arrays.asList(new AbstractMap.SimpleImmutableEntry<>("a.B$C", new byte[]{1, 2}), new AbstractMap.SimpleImmutableEntry<>("a.B", new byte[]{3, 4, 5}));
+		cache.put(key, classes);
+
+		List<Map.Entry<String, byte[]>> result = cache.get(key);
+		Assert.assertEquals(2, result.size());
+		Assert.assertEquals("a.B$C", result.get(0).getKey());
+		Assert.assertArrayEquals(new byte[]{1, 2}, result.get(0).getValue());
+		Assert.assertEquals("a.B", result.get(1).getKey());
+		Assert.assertArrayEquals(new byte[]{3, 4, 5}, result.get(1).getValue());
+	}
+
+	@Test
+	public void key() {
+		String key = ClassCache.key("a.B", "code", "fp", Arrays.asList("-parameters"));
+		Assert.assertEquals(key, ClassCache.key("a.B", "code", "fp", Arrays.asList("-parameters")));
+		Assert.assertNotEquals(key, ClassCache.key("a.B", "code2", "fp", Arrays.asList("-parameters")));
+		Assert.assertNotEquals(key, ClassCache.key("a.B", "code", "fp2", Arrays.asList("-parameters")));
+		Assert.assertNotEquals(key, ClassCache.key("a.B", "code", "fp", Arrays.asList("-parameters", "-g")));
+	}
+
+	@Test
+	public void broken() throws IOException {
+		File dir = Files.createTempDirectory("class_cache").toFile();
+		ClassCache cache = new ClassCache(dir);
+		File file = new File(dir, "broken.jcc");
+		try (FileOutputStream out = new FileOutputStream(file)) {
+			out.write(new byte[]{0, 0, 0, 5, 1});
+		}
+		Assert.assertNull(cache.get("broken"));
+		Assert.assertFalse(file.exists());
+	}
+}
@@ -0,0 +1,66 @@
+package org.nlpcn.jcoder.run.java;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.run.annotation.Reset;
+
+public class InstancePoolTest {
+
+	public static class Plain {
+	}
+
+	public static class Resettable {
+		public int count;
+
+		@Reset
+		public void reset() {
+			if (count < 0) {
+				throw new IllegalStateException("broken");
+			}
+			count = 0;
+		}
+	}
+
+	@Test
+	public void pool() {
+		InstancePool pool = new InstancePool(Plain.class, 2, null, null);
+		Assert.assertNull(pool.poll());
+
+		Plain a = new Plain(), b = new Plain(), c = new Plain();
+		Assert.assertTrue(pool.offer(a, false));
+		Assert.assertTrue(pool.offer(b, false));
+		Assert.assertFalse(pool.offer(c, false)); //池满丢弃
+		Assert.assertEquals(2, pool.idle());
+
+		Assert.assertSame(b, pool.poll());
+		Assert.assertSame(a, pool.poll());
+		Assert.assertNull(pool.poll());
+
+		//没有重置方法时出错的实例不归还
+		Assert.assertFalse(pool.offer(a, true));
+	}
+
+	@Test
+	public void reset() {
+		InstancePool pool = new InstancePool(Resettable.class, 2, null, null);
+		Resettable r = new Resettable();
+		r.count = 3;
+		Assert.assertTrue(pool.offer(r, true));
+		Assert.assertEquals(0, ((Resettable) pool.poll()).count);
+
+		r.count = -1;
+		Assert.assertFalse(pool.offer(r, false));
+		Assert.assertEquals(0, pool.idle());
+	}
+
+	@Test
+	public void stale() {
+		ClassLoader cl = getClass().getClassLoader();
+		Object ioc = new Object();
+		InstancePool pool = new InstancePool(Plain.class, 1, ioc, cl);
+		Assert.assertFalse(pool.stale(ioc, cl));
+		Assert.assertTrue(pool.stale(new Object(), cl));
+		Assert.assertTrue(pool.stale(ioc, new ClassLoader() {
+		}));
+	}
+}
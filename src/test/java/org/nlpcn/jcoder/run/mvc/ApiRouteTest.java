@@ -0,0 +1,30 @@
+package org.nlpcn.jcoder.run.mvc;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ApiRouteTest {
+
+	@Test
+	public void parse() {
+		ApiRoute route = ApiRoute.parse("/api/group/TestApi/search");
+		Assert.assertEquals("group", route.getGroupName());
+		Assert.assertEquals("TestApi", route.getClassName());
+		Assert.assertEquals("search", route.getMethodName());
+		Assert.assertEquals("group/TestApi", route.getTaskKey());
+		Assert.assertEquals("/api/group/TestApi/search", route.getPath());
+
+		//多余的路径忽略, 与split的行为一致
+		Assert.assertEquals("search", ApiRoute.parse("/api/group/TestApi/search/more").getMethodName());
+	}
+
+	@Test
+	public void illegal() {
+		Assert.assertNull(ApiRoute.parse(null));
+		Assert.assertNull(ApiRoute.parse("/admin/group/TestApi/search"));
+		Assert.assertNull(ApiRoute.parse("/api/group/TestApi"));
+		Assert.assertNull(ApiRoute.parse("/api/group/TestApi/"));
+		Assert.assertNull(ApiRoute.parse("/api//TestApi/search"));
+		Assert.assertNull(ApiRoute.parse("/api/group//search"));
+	}
+}
@@ -0,0 +1,77 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+public class ArgsTest {
+
+	public static class User {
+		private String name;
+		private int age;
+		private User friend;
+
+		public User(String name, int age) {
+			this.name = name;
+			this.age = age;
+		}
+	}
+
+	@Test
+	public void equalsTest() {
+		Assert.assertEquals(Args.create(new Object[]{"a", 1, 2L, null}), Args.create(new Object[]{"a", 1, 2L, null}));
+		Assert.assertNotEquals(Args.create(new Object[]{1}), Args.create(new Object[]{1L}));
+		Assert.assertNotEquals(Args.create(new Object[]{"ab", "c"}), Args.create(new Object[]{"a", "bc"}));
+
+		Assert.assertEquals(Args.create(new Object[]{new int[]{1, 2}, new String[]{"x"}}), Args.create(new Object[]{new int[]{1, 2}, new String[]{"x"}}));
+		Assert.assertEquals(Args.create(new Object[]{new User("ansj", 18)}), Args.create(new Object[]{new User("ansj", 18)}));
+		Assert.assertNotEquals(Args.create(new Object[]{new User("ansj", 18)}), Args.create(new Object[]{new User("ansj", 19)}));
+	}
+
+	@Test
+	public void jdkTypeTest() {
+		//jdk中的类型不反射私有字段, 按toString编码
+		UUID uuid = UUID.randomUUID();
+		Assert.assertEquals(Args.create(new Object[]{uuid, LocalDate.of(2018, 1, 1), Optional.of("a"), new File("a.txt")}),
+				Args.create(new Object[]{UUID.fromString(uuid.toString()), LocalDate.of(2018, 1, 1), Optional.of("a"), new File("a.txt")}));
+		Assert.assertNotEquals(Args.create(new Object[]{LocalDate.of(2018, 1, 1)}), Args.create(new Object[]{LocalDate.of(2018, 1, 2)}));
+		Assert.assertNotEquals(Args.create(new Object[]{uuid}), Args.create(new Object[]{uuid.toString()}));
+	}
+
+	@Test
+	public void unorderedTest() {
+		Map<String, Object> m1 = new HashMap<>();
+		Map<String, Object> m2 = new LinkedHashMap<>();
+		for (int i = 0; i < 20; i++) {
+			m1.put("k" + i, i);
+		}
+		for (int i = 19; i >= 0; i--) {
+			m2.put("k" + i, i);
+		}
+		Args a1 = Args.create(new Object[]{m1});
+		Args a2 = Args.create(new Object[]{m2});
+		Assert.assertEquals(a1, a2);
+		Assert.assertEquals(a1.hashCode(), a2.hashCode());
+
+		Assert.assertEquals(Args.create(new Object[]{new LinkedHashSet<>(Arrays.asList(1, 2, 3))}), Args.create(new Object[]{new LinkedHashSet<>(Arrays.asList(3, 2, 1))}));
+		Assert.assertNotEquals(Args.create(new Object[]{Arrays.asList(1, 2, 3)}), Args.create(new Object[]{Arrays.asList(3, 2, 1)}));
+	}
+
+	@Test
+	public void skipAndCycleTest() {
+		Assert.assertEquals(Args.create(new Object[]{"a", new Object()}, new boolean[]{false, true}), Args.create(new Object[]{"a", "any"}, new boolean[]{false, true}));
+
+		User user = new User("ansj", 18);
+		user.friend = user;
+		Assert.assertEquals(Args.create(new Object[]{user}), Args.create(new Object[]{user}));
+	}
+}
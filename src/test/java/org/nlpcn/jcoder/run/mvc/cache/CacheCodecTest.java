@@ -0,0 +1,27 @@
+package org.nlpcn.jcoder.run.mvc.cache;
+
+import com.alibaba.fastjson.TypeReference;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+public class CacheCodecTest {
+
+	@Test
+	public void test() {
+		Args args = Args.create(new Object[]{"ansj", 1});
+		ByteBuffer buffer = ByteBuffer.wrap(CacheCodec.encode(args.getKey(), Arrays.asList(1, 2, 3), 100L));
+
+		Assert.assertEquals(100L, CacheCodec.time(buffer));
+		Assert.assertTrue(CacheCodec.match(buffer, args.getKey()));
+		Assert.assertFalse(CacheCodec.match(buffer, Args.create(new Object[]{"ansj", 2}).getKey()));
+		Assert.assertEquals(Arrays.asList(1, 2, 3), CacheCodec.decode(buffer, new TypeReference<List<Integer>>() {
+		}.getType()));
+
+		buffer = ByteBuffer.wrap(CacheCodec.encode(args.getKey(), CacheEntry.NULL, 100L));
+		Assert.assertSame(CacheEntry.NULL, CacheCodec.decode(buffer, String.class));
+	}
+}
@@ -0,0 +1,112 @@
+package org.nlpcn.jcoder.run.mvc.limit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+import org.nlpcn.jcoder.util.ApiException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class LimiterTest {
+
+	@Test
+	public void reject() throws Exception {
+		Limiter limiter = new Limiter("test", 1, 0, 10, false);
+		limiter.acquire();
+		try {
+			limiter.acquire();
+			Assert.fail();
+		} catch (ApiException e) {
+			Assert.assertEquals(ApiException.TooManyRequests, e.getStatus());
+		}
+		limiter.release(0, false);
+		limiter.acquire();
+		Assert.assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void queue() throws Exception {
+		Limiter limiter = new Limiter("test", 1, 1, 50, false);
+		limiter.acquire();
+		try {
+			limiter.acquire(); //排队超时
+			Assert.fail();
+		} catch (ApiException e) {
+			Assert.assertEquals(ApiException.ServiceUnavailable, e.getStatus());
+		}
+		Assert.assertEquals(0, limiter.getQueued());
+
+		Limiter waiting = new Limiter("test", 1, 1, 5000, false);
+		waiting.acquire();
+		CompletableFuture<Void> future = CompletableFuture.runAsync(() -> {
+			try {
+				waiting.acquire();
+			} catch (ApiException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		while (waiting.getQueued() == 0) {
+			Thread.sleep(1);
+		}
+		waiting.release(0, false);
+		future.get(5, TimeUnit.SECONDS);
+		Assert.assertEquals(1, waiting.getInFlight());
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		Limiter limiter = new Limiter("test", 1, 1, 5000, false);
+		limiter.acquire();
+		long start = System.currentTimeMillis();
+		try {
+			limiter.acquire(Deadline.after(50)); //请求的截止时间先于排队超时到期
+			Assert.fail();
+		} catch (ApiException e) {
+			Assert.assertEquals(ApiException.GatewayTimeout, e.getStatus());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		Assert.assertEquals(0, limiter.getQueued());
+		Assert.assertEquals(1, limiter.getInFlight());
+	}
+
+	@Test
+	public void adaptive() throws Exception {
+		Limiter limiter = new Limiter("test", 10, 0, 0, true);
+		limiter.acquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		Assert.assertEquals(10, limiter.getLimit());
+
+		limiter.acquire();
+		limiter.release(TimeUnit.MILLISECONDS.toNanos(100), false); //变慢后乘性减少
+		Assert.assertEquals(9, limiter.getLimit());
+
+		limiter.acquire();
+		limiter.release(0, true);
+		Assert.assertEquals(8, limiter.getLimit());
+
+		//业务异常不影响上限
+		limiter.acquire();
+		Limiter.Permit permit = new Limiter.Permit(null, limiter);
+		permit.release(new ApiException(ApiException.UnprocessableEntity, "bad input"));
+		Assert.assertEquals(8, limiter.getLimit());
+		Assert.assertEquals(0, limiter.getInFlight());
+
+		limiter.acquire();
+		permit = new Limiter.Permit(null, limiter);
+		permit.release(new CompletionException(new TimeoutException()));
+		Assert.assertEquals(7, limiter.getLimit());
+	}
+
+	@Test
+	public void overload() {
+		Assert.assertTrue(Limiter.overload(new TimeoutException()));
+		Assert.assertTrue(Limiter.overload(new ExecutionException(new RejectedExecutionException())));
+		Assert.assertFalse(Limiter.overload(new IllegalArgumentException()));
+		Assert.assertFalse(Limiter.overload(new ApiException(ApiException.GatewayTimeout, "request deadline exceeded")));
+	}
+}
@@ -0,0 +1,47 @@
+package org.nlpcn.jcoder.run.rpc.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.util.ApiException;
+
+public class DeadlineTest {
+
+	@Test
+	public void parse() throws Exception {
+		Deadline none = Deadline.parse(null);
+		Assert.assertFalse(none.isBounded());
+		Assert.assertEquals(Long.MAX_VALUE, none.remaining());
+		Assert.assertFalse(Deadline.parse("abc").isBounded());
+		none.check();
+
+		Deadline deadline = Deadline.parse(" 5000 ");
+		Assert.assertTrue(deadline.isBounded());
+		Assert.assertTrue(deadline.remaining() > 4000 && deadline.remaining() <= 5000);
+		Assert.assertTrue(Long.parseLong(deadline.toHeader()) <= 5000);
+		deadline.check();
+
+		//上一跳已经用完了时间
+		Assert.assertTrue(Deadline.parse("0").isExpired());
+	}
+
+	@Test
+	public void check() {
+		try {
+			Deadline.parse("-1").check();
+			Assert.fail();
+		} catch (ApiException e) {
+			Assert.assertEquals(ApiException.GatewayTimeout, e.getStatus());
+		}
+
+		Deadline deadline = Deadline.unbounded();
+		Assert.assertFalse(deadline.isCancelled());
+		deadline.cancel();
+		Assert.assertTrue(deadline.isCancelled());
+		try {
+			deadline.check();
+			Assert.fail();
+		} catch (ApiException e) {
+			Assert.assertEquals(ApiException.ServiceUnavailable, e.getStatus());
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package org.nlpcn.jcoder.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.domain.HostGroup;
+import org.nlpcn.jcoder.domain.Task;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardedSchedulerTest {
+
+	private HostGroup host(String hostPort) {
+		HostGroup hostGroup = new HostGroup();
+		hostGroup.setHostPort(hostPort);
+		hostGroup.setWeight(100);
+		hostGroup.setCurrent(true);
+		return hostGroup;
+	}
+
+	@Test
+	public void owner() {
+		List<HostGroup> hosts = new ArrayList<>(Arrays.asList(host("a:1"), host("b:1"), host("c:1")));
+		Map<String, String> before = new HashMap<>();
+		for (int i = 0; i < 300; i++) {
+			before.put("task" + i, ShardedScheduler.owner(hosts, "g", "task" + i));
+		}
+		Assert.assertEquals(3, before.values().stream().distinct().count());
+
+		//c离开后只有c上的task迁移
+		hosts.remove(2);
+		for (Map.Entry<String, String> entry : before.entrySet()) {
+			String owner = ShardedScheduler.owner(hosts, "g", entry.getKey());
+			if (!"c:1".equals(entry.getValue())) {
+				Assert.assertEquals(entry.getValue(), owner);
+			} else {
+				Assert.assertNotEquals("c:1", owner);
+			}
+		}
+
+		Assert.assertNull(ShardedScheduler.owner(new ArrayList<>(), "g", "task"));
+	}
+
+	@Test
+	public void update() {
+		HostGroup hostGroup = host("a:1");
+		Assert.assertTrue(ShardedScheduler.update("a:1_g", hostGroup));
+
+		//负载上报不影响分片
+		hostGroup.setRunningJobs(3);
+		hostGroup.setCpu(0.5);
+		Assert.assertFalse(ShardedScheduler.update("a:1_g", hostGroup));
+
+		hostGroup.setCurrent(false);
+		Assert.assertTrue(ShardedScheduler.update("a:1_g", hostGroup));
+
+		Assert.assertTrue(ShardedScheduler.update("a:1_g", null));
+		Assert.assertFalse(ShardedScheduler.update("a:1_g", null));
+	}
+
+	@Test
+	public void isCron() {
+		Task task = new Task();
+		task.setType(2);
+		task.setStatus(1);
+		task.setScheduleStr("0/5 * * * * ?");
+		Assert.assertTrue(ShardedScheduler.isCron(task));
+
+		task.setScheduleStr("while");
+		Assert.assertFalse(ShardedScheduler.isCron(task));
+
+		task.setScheduleStr("0/5 * * * * ?");
+		task.setStatus(0);
+		Assert.assertFalse(ShardedScheduler.isCron(task));
+	}
+}
@@ -0,0 +1,175 @@
+package org.nlpcn.jcoder.scheduler;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.domain.Task;
+import org.nlpcn.jcoder.run.rpc.Rpcs;
+import org.nlpcn.jcoder.run.rpc.domain.Deadline;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TaskExecutorTest {
+
+	private final List<String> order = new CopyOnWriteArrayList<>();
+
+	private Task task(String name) {
+		Task task = new Task();
+		task.setGroupName("test");
+		task.setName(name);
+		return task;
+	}
+
+	/**
+	 * 记录执行顺序, 等待latch后结束
+	 */
+	private TaskJob job(String name, int priority, boolean longRunning, boolean serial, CountDownLatch latch, CountDownLatch done) {
+		return new TaskJob(name, task(name.split("#")[0]), priority, longRunning, serial) {
+			@Override
+			protected void execute() {
+				order.add(name);
+				try {
+					latch.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					order.add(name + ":interrupted");
+				}
+				done.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void priority() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 1, 10, 1);
+		CountDownLatch block = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+		executor.execute(job("block", 0, false, false, block, done));
+		while (order.isEmpty()) {
+			Thread.sleep(1);
+		}
+		executor.execute(job("low", 0, false, false, new CountDownLatch(0), done));
+		executor.execute(job("high", 10, false, false, new CountDownLatch(0), done));
+		block.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[block, high, low]", order.toString());
+	}
+
+	@Test
+	public void serial() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 2, 10, 1);
+		CountDownLatch first = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		executor.execute(job("t#1", 0, false, true, first, done));
+		executor.execute(job("t#2", 0, false, true, new CountDownLatch(0), done));
+		Thread.sleep(100);
+		//同一个task上一次没有结束时等待, 不占用空闲的线程
+		Assert.assertEquals("[t#1]", order.toString());
+		Assert.assertEquals(1, executor.stats().get("queued"));
+		first.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[t#1, t#2]", order.toString());
+	}
+
+	@Test
+	public void remove() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 1, 10, 1);
+		CountDownLatch block = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		executor.execute(job("block", 0, false, false, block, done));
+		TaskJob queued = job("queued", 0, false, false, new CountDownLatch(0), done);
+		executor.execute(queued);
+		executor.execute(job("last", 0, false, false, new CountDownLatch(0), done));
+
+		Assert.assertFalse(queued.cancel());
+		Assert.assertTrue(executor.remove(queued));
+		block.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[block, last]", order.toString());
+	}
+
+	@Test
+	public void reject() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 1, 1, 1);
+		CountDownLatch block = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+		executor.execute(job("block", 0, false, false, block, done));
+		while (order.isEmpty()) {
+			Thread.sleep(1);
+		}
+		executor.execute(job("queued", 0, false, false, new CountDownLatch(0), done));
+		try {
+			executor.execute(job("full", 0, false, false, new CountDownLatch(0), done));
+			Assert.fail();
+		} catch (TaskException e) {
+			//队列已满
+		}
+
+		//while和一次性任务同时执行的数量有上限
+		executor.execute(job("while", 0, true, false, block, done));
+		try {
+			executor.execute(job("while2", 0, true, false, block, done));
+			Assert.fail();
+		} catch (TaskException e) {
+			//超过上限
+		}
+		Assert.assertEquals(2L, executor.stats().get("rejected"));
+
+		block.countDown();
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void interrupt() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 1, 10, 1);
+		CountDownLatch done = new CountDownLatch(2);
+		TaskJob running = job("running", 0, false, false, new CountDownLatch(1), done);
+		executor.execute(running);
+		while (!running.isRunning()) {
+			Thread.sleep(1);
+		}
+		Assert.assertTrue(running.cancel());
+		Assert.assertTrue(running.interrupt());
+		Assert.assertFalse(running.kill()); //线程池中的线程不能强制结束
+
+		//中断标记不会带到同一个线程的下一次执行
+		TaskJob next = new TaskJob("next", task("next"), 0, false, false) {
+			@Override
+			protected void execute() {
+				order.add("next:" + Thread.currentThread().isInterrupted());
+				done.countDown();
+			}
+		};
+		executor.execute(next);
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[running, running:interrupted, next:false]", order.toString());
+		Assert.assertFalse(running.interrupt());
+	}
+
+	@Test
+	public void deadline() throws Exception {
+		TaskExecutor executor = new TaskExecutor("test", 1, 10, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(1);
+		TaskJob running = new TaskJob("running", task("running"), 0, false, false) {
+			@Override
+			protected void execute() {
+				started.countDown();
+				//task代码只能通过上下文看到停止
+				Deadline deadline = Rpcs.ctx().getDeadline();
+				long end = System.currentTimeMillis() + 5000;
+				while (!deadline.isCancelled() && System.currentTimeMillis() < end) {
+					Thread.yield();
+				}
+				order.add("cancelled:" + deadline.isCancelled());
+				done.countDown();
+			}
+		};
+		executor.execute(running);
+		Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+		Assert.assertTrue(running.cancel());
+		Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+		Assert.assertEquals("[cancelled:true]", order.toString());
+	}
+}
@@ -0,0 +1,107 @@
+package org.nlpcn.jcoder.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class ProxyServiceTest {
+
+	@Test
+	public void fanOut() throws Exception {
+		//全部返回后按照传入的顺序完成, 异常转换为结果
+		CompletableFuture<String> slow = new CompletableFuture<>();
+		CompletableFuture<Map<String, String>> result = ProxyService.fanOut(Arrays.asList("a", "b", "c"), hostPort -> {
+			switch (hostPort) {
+				case "a":
+					return slow;
+				case "b":
+					return CompletableFuture.completedFuture("ok");
+				default:
+					CompletableFuture<String> fail = new CompletableFuture<>();
+					fail.completeExceptionally(new IllegalStateException("down"));
+					return fail;
+			}
+		}, e -> "fail:" + e.getMessage());
+
+		Assert.assertFalse(result.isDone());
+		slow.complete("late");
+		Assert.assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(result.get().keySet()));
+		Assert.assertEquals("late", result.get().get("a"));
+		Assert.assertEquals("fail:down", result.get().get("c"));
+
+		Assert.assertTrue(ProxyService.fanOut(Collections.<String>emptyList(), hostPort -> CompletableFuture.completedFuture(hostPort), e -> null).get().isEmpty());
+	}
+
+	@Test
+	public void cancel() {
+		//取消合并的结果时取消还未返回的请求
+		CompletableFuture<String> pending = new CompletableFuture<>();
+		CompletableFuture<Map<String, String>> result = ProxyService.fanOut(Arrays.asList("a", "b"), hostPort -> "a".equals(hostPort) ? pending : CompletableFuture.completedFuture("ok"), e -> null);
+		result.cancel(true);
+		Assert.assertTrue(pending.isCancelled());
+	}
+
+	@Test
+	public void quorum() throws Exception {
+		//满足quorum后提前完成, 并取消还未返回的请求
+		CompletableFuture<String> straggler = new CompletableFuture<>();
+		CompletableFuture<String> failed = new CompletableFuture<>();
+		CompletableFuture<Map<String, String>> result = ProxyService.fanOut(Arrays.asList("a", "b", "c", "d"), hostPort -> {
+			switch (hostPort) {
+				case "a":
+				case "b":
+					return CompletableFuture.completedFuture("ok");
+				case "c":
+					return failed;
+				default:
+					return straggler;
+			}
+		}, e -> "fail", done -> done.values().stream().filter("ok"::equals).count() >= 2 && done.size() >= 3);
+
+		Assert.assertFalse(result.isDone()); //失败的结果也要等到
+		failed.completeExceptionally(new IllegalStateException("down"));
+		Assert.assertEquals(3, result.get().size());
+		Assert.assertEquals("fail", result.get().get("c"));
+		Assert.assertFalse(result.get().containsKey("d"));
+		Assert.assertTrue(straggler.isCancelled());
+
+		//一直不满足时等待所有主机
+		CompletableFuture<String> last = new CompletableFuture<>();
+		result = ProxyService.fanOut(Arrays.asList("a", "b"), hostPort -> "a".equals(hostPort) ? CompletableFuture.completedFuture("ok") : last, e -> "fail", done -> false);
+		Assert.assertFalse(result.isDone());
+		last.complete("ok");
+		Assert.assertEquals(2, result.get().size());
+	}
+
+	@Test
+	public void submitTimeout() throws Exception {
+		//超时从开始执行计时, 超时后中断执行线程
+		CountDownLatch interrupted = new CountDownLatch(1);
+		CompletableFuture<String> future = ProxyService.submit(() -> {
+			try {
+				Thread.sleep(10000L);
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return "ok";
+		}, 100);
+		try {
+			future.get();
+			Assert.fail();
+		} catch (ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		Assert.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+
+		Assert.assertEquals("ok", ProxyService.submit(() -> "ok", 1000).get());
+	}
+}
@@ -0,0 +1,39 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class BalancersTest {
+
+	private HostGroup host(String hostPort, int weight) {
+		HostGroup hostGroup = new HostGroup();
+		hostGroup.setHostPort(hostPort);
+		hostGroup.setWeight(weight);
+		return hostGroup;
+	}
+
+	@Test
+	public void test() {
+		List<HostGroup> hosts = Arrays.asList(host("test_a:1", 100), host("test_b:1", 100), host("test_c:1", 100));
+
+		TargetStats.of("test_a:1").start();
+		TargetStats.of("test_a:1").start();
+		TargetStats.of("test_b:1").start();
+
+		Assert.assertEquals("test_c:1", Balancers.LEAST_REQUEST.choose(hosts).getHostPort());
+		Assert.assertEquals("test_c:1", Balancers.PEAK_EWMA.choose(hosts).getHostPort());
+
+		for (int i = 0; i < 100; i++) {
+			Assert.assertNotEquals("test_a:1", Balancers.P2C.choose(hosts).getHostPort());
+		}
+
+		Assert.assertEquals("test_b:1", Balancers.RANDOM.choose(Arrays.asList(host("test_a:1", 0), host("test_b:1", 10))).getHostPort());
+
+		Assert.assertSame(Balancers.P2C, Balancers.of("p2c"));
+		Assert.assertSame(Balancers.RANDOM, Balancers.of(null));
+	}
+}
@@ -0,0 +1,54 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class HashRingTest {
+
+	private List<HostGroup> hosts(int num) {
+		List<HostGroup> list = new ArrayList<>();
+		for (int i = 0; i < num; i++) {
+			HostGroup hostGroup = new HostGroup();
+			hostGroup.setHostPort("ring_" + i + ":8080");
+			hostGroup.setWeight(100);
+			list.add(hostGroup);
+		}
+		return list;
+	}
+
+	@Test
+	public void test() {
+		HashRing ring4 = new HashRing(hosts(4));
+		HashRing ring5 = new HashRing(hosts(5));
+
+		int moved = 0;
+		int total = 10000;
+		for (int i = 0; i < total; i++) {
+			String key = "key_" + i;
+			Assert.assertEquals(ring4.choose(key, 0).getHostPort(), ring4.choose(key, 0).getHostPort());
+			if (!ring4.choose(key, 0).getHostPort().equals(ring5.choose(key, 0).getHostPort())) {
+				moved++;
+			}
+		}
+		//理想情况是移动1/5
+		Assert.assertTrue("moved " + moved, moved < total * 0.3);
+
+		Assert.assertTrue(ring5.contains("ring_4:8080"));
+		Assert.assertFalse(ring4.contains("ring_4:8080"));
+	}
+
+	@Test
+	public void boundedLoad() {
+		List<HostGroup> hosts = hosts(3);
+		HashRing ring = new HashRing(hosts);
+		String target = ring.choose("hot", 0).getHostPort();
+		for (int i = 0; i < 10; i++) {
+			TargetStats.of(target).start();
+		}
+		Assert.assertNotEquals(target, ring.choose("hot", 1.25).getHostPort());
+	}
+}
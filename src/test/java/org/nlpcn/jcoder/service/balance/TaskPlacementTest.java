@@ -0,0 +1,65 @@
+package org.nlpcn.jcoder.service.balance;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.nlpcn.jcoder.domain.HostGroup;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+public class TaskPlacementTest {
+
+	private static final Function<String, Collection<String>> NONE = name -> Collections.emptyList();
+
+	private HostGroup host(String hostPort, int runningJobs, double cpu, String... tasks) {
+		HostGroup hostGroup = new HostGroup();
+		hostGroup.setHostPort(hostPort);
+		hostGroup.setWeight(100);
+		hostGroup.setCurrent(true);
+		hostGroup.setRunningJobs(runningJobs);
+		hostGroup.setCpu(cpu);
+		hostGroup.setTasks(Arrays.asList(tasks));
+		return hostGroup;
+	}
+
+	@Test
+	public void leastLoad() {
+		TaskPlacement placement = new TaskPlacement();
+		List<HostGroup> hosts = Arrays.asList(host("a:1", 3, 0.1), host("b:1", 1, 0.1), host("c:1", 1, 0.3));
+		Assert.assertEquals("b:1", placement.choose(hosts, "g", "t1", NONE).getHostPort());
+
+		//还没有上报负载之前, 分配过的也计入负载
+		placement.assign("b:1", "g", "t1");
+		placement.assign("b:1", "g", "t2");
+		Assert.assertEquals("c:1", placement.choose(hosts, "g", "t3", NONE).getHostPort());
+
+		placement.forget("b:1", "g");
+		Assert.assertEquals("b:1", placement.choose(hosts, "g", "t3", NONE).getHostPort());
+
+		HostGroup notCurrent = host("d:1", 0, 0);
+		notCurrent.setCurrent(false);
+		Assert.assertNull(placement.choose(Collections.singletonList(notCurrent), "g", "t1", NONE));
+	}
+
+	@Test
+	public void antiAffinity() {
+		TaskPlacement placement = new TaskPlacement();
+		List<HostGroup> hosts = Arrays.asList(host("a:1", 0, 0, "db"), host("b:1", 5, 0, "other"));
+
+		//自己声明了反亲和
+		Function<String, Collection<String>> self = name -> "sync".equals(name) ? Collections.singletonList("db") : Collections.emptyList();
+		Assert.assertEquals("b:1", placement.choose(hosts, "g", "sync", self).getHostPort());
+
+		//已经运行的task声明了反亲和
+		Function<String, Collection<String>> other = name -> "db".equals(name) ? Collections.singletonList("sync") : Collections.emptyList();
+		Assert.assertEquals("b:1", placement.choose(hosts, "g", "sync", other).getHostPort());
+
+		Assert.assertEquals("a:1", placement.choose(hosts, "g", "sync", NONE).getHostPort());
+
+		Function<String, Collection<String>> all = name -> Arrays.asList("db", "other");
+		Assert.assertNull(placement.choose(hosts, "g", "sync", all));
+	}
+}